@@ -0,0 +1,428 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * The state of every person and place, kept outside the Java heap
+ * The state is a memory-mapped file of fixed-size little-endian records,
+ * one per person by serial number and one per place by id, after a
+ * header.  While the store is open, its records are the state:  Person
+ * and Place read their home, workplace, place, infection state, closure,
+ * infectious count and transmissivity from the records and write changes
+ * only there, and their own fields are brought up to date only when a
+ * snapshot is taken or the store is closed.  So the file always holds
+ * the latest state and can be mapped by another program, even while the
+ * simulation runs, and read without any parsing.
+ * Usage: java AgentStore file -- to summarize a store
+ * <pre>
+ *   header, 32 bytes:  magic i32, version i32, people i64, places i64,
+ *                      time f64 the state is from:  the latest daily
+ *                      report, or the end once the store is closed
+ *   person, 16 bytes:  state i8 (ordinal), employed i8, 2 spare bytes,
+ *                      home i32, workplace i32 (-1 if none),
+ *                      place i32 (-1 while in transit, or dead)
+ *   place, 16 bytes:   kind i8 (0 home, 1 workplace, 2 other), closed i8,
+ *                      2 spare bytes, infectious occupants i32,
+ *                      transmissivity f64 (per hour)
+ * </pre>
+ * Records never straddle the windows in which the file is mapped, so
+ * the store may be larger than one Java buffer can address.
+ * @author Thomas McDowell
+ * @version 1/22/2021
+ * Status: New code
+ * @see Person
+ * @see Place
+ */
+public class AgentStore {
+    private AgentStore(){} // prevent anyone from instantiating this class
+
+    /** true while the store holds the state; test before calling the
+     *  methods that read and write records
+     */
+    static boolean open = false;
+
+    private static final int magic = 0x45504153; // "EPAS"
+    private static final int version = 1;
+    private static final int header = 32;
+    private static final int record = 16;
+    private static final int windowBits = 27; // 128 MB, a record multiple
+    private static final long window = 1L << windowBits;
+
+    private static RandomAccessFile file;
+    private static MappedByteBuffer[] windows;
+    private static long people;     // records of people
+    private static long placeBase;  // offset of the first place record
+
+    // every place, by id, for the ids in records
+    private static Place[] placeOf;
+    private static final Person.States[] states = Person.States.values();
+
+    /** @return the window holding the byte at an offset
+     *  @param off the offset in the store
+     */
+    private static ByteBuffer at( long off ) {
+	return windows[(int)(off >>> windowBits)];
+    }
+
+    /** @return the position of an offset within its window
+     *  @param off the offset in the store
+     */
+    private static int in( long off ) {
+	return (int)(off & (window - 1));
+    }
+
+    private static long of( Person p ) {
+	return header + (long)p.serial * record;
+    }
+
+    private static long of( Place p ) {
+	return placeBase + (long)p.id * record;
+    }
+
+    /** Map a store into memory
+     *  @param channel the store file
+     *  @param mode how to map it
+     *  @param length the length of the store
+     *  @return its windows, little-endian
+     *  @throws IOException if it can't be mapped
+     */
+    private static MappedByteBuffer[] map(
+	FileChannel channel, FileChannel.MapMode mode, long length
+    ) throws IOException {
+	MappedByteBuffer[] w = new MappedByteBuffer[
+	    (int)((length + window - 1) >>> windowBits)
+	];
+	for (int i = 0; i < w.length; i++) {
+	    long base = (long)i << windowBits;
+	    w[i] = channel.map( mode, base, Math.min( window, length - base ) );
+	    w[i].order( ByteOrder.LITTLE_ENDIAN );
+	}
+	return w;
+    }
+
+    /** Create a store holding the whole community as it now is
+     *  @param f the store file, replaced if it exists
+     *  @throws IOException if the store can't be made
+     *  Called once the community is complete, before the simulation runs.
+     */
+    static void open( File f ) throws IOException {
+	people = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    people = Math.max( people, i.next().serial + 1 );
+	}
+	long places = 0;
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    places = Math.max( places, i.next().id + 1 );
+	}
+	placeBase = header + people * record;
+
+	f.delete();
+	file = new RandomAccessFile( f, "rw" );
+	windows = map( file.getChannel(), FileChannel.MapMode.READ_WRITE,
+	    placeBase + places * record
+	);
+	ByteBuffer h = windows[0];
+	h.putInt( 0, magic );
+	h.putInt( 4, version );
+	h.putLong( 8, people );
+	h.putLong( 16, places );
+	sync();
+    }
+
+    /** Write every record from the fields of the model, and let the
+     *  records hold the state from now on
+     *  Called when the store is opened, and whenever the model is replaced
+     *  by one restored from a snapshot; does nothing if no store is open.
+     */
+    static void sync() {
+	if (windows == null) return;
+	placeOf = new Place[(int)places()];
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    placeOf[p.id] = p;
+	}
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    long off = of( p );
+	    ByteBuffer b = at( off );
+	    int o = in( off );
+	    b.put( o, (byte)p.infectionState.ordinal() );
+	    b.put( o + 1, (byte)((p instanceof Employee) ? 1 : 0) );
+	    b.putInt( o + 4, p.home.id );
+	    WorkPlace w = (p instanceof Employee) ? ((Employee)p).job : null;
+	    b.putInt( o + 8, (w == null) ? -1 : w.id );
+	    b.putInt( o + 12, (p.place == null) ? -1 : p.place.id );
+	}
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    long off = of( p );
+	    ByteBuffer b = at( off );
+	    int o = in( off );
+	    b.put( o, ContactGraph.kind( p ) );
+	    b.put( o + 1, (byte)(p.closed ? 1 : 0) );
+	    b.putInt( o + 4, p.infectiousCount() );
+	    b.putDouble( o + 8, p.transmissivity );
+	}
+	open = true;
+    }
+
+    /** @return the number of place records
+     */
+    private static long places() {
+	return windows[0].getLong( 16 );
+    }
+
+    /** Let the fields of the model hold the state until the next sync()
+     *  Called by Snapshot while it replaces the model with a copy whose
+     *  fields hold its state.
+     */
+    static void suspend() {
+	open = false;
+    }
+
+    /** Bring the fields of the model up to date from the records
+     *  Called before a snapshot is taken, and when the store is closed;
+     *  the records still hold the state.
+     */
+    static void settle() {
+	if (!open) return;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    p.infectionState = state( p );
+	    p.home = home( p );
+	    p.place = place( p );
+	    if (p instanceof Employee) ((Employee)p).job = job( p );
+	}
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    p.closed = closed( p );
+	    p.infectiousCount = infectious( p );
+	    p.transmissivity = transmissivity( p );
+	}
+    }
+
+    /** @return the place with an id in a record, or null for -1
+     *  @param id the id
+     */
+    private static Place placeOf( int id ) {
+	return (id < 0) ? null : placeOf[id];
+    }
+
+    /** @return the infection state of someone
+     *  @param p the person
+     */
+    static Person.States state( Person p ) {
+	long off = of( p );
+	return states[at( off ).get( in( off ) )];
+    }
+
+    /** @return the home of someone
+     *  @param p the person
+     */
+    static HomePlace home( Person p ) {
+	long off = of( p ) + 4;
+	return (HomePlace)placeOf( at( off ).getInt( in( off ) ) );
+    }
+
+    /** @return the workplace of someone, or null if none
+     *  @param p the person
+     */
+    static WorkPlace job( Person p ) {
+	long off = of( p ) + 8;
+	return (WorkPlace)placeOf( at( off ).getInt( in( off ) ) );
+    }
+
+    /** @return where someone is, or null while in transit
+     *  @param p the person
+     */
+    static Place place( Person p ) {
+	long off = of( p ) + 12;
+	return placeOf( at( off ).getInt( in( off ) ) );
+    }
+
+    /** @return true if a place is closed
+     *  @param p the place
+     */
+    static boolean closed( Place p ) {
+	long off = of( p ) + 1;
+	return at( off ).get( in( off ) ) != 0;
+    }
+
+    /** @return the number of infectious people in a place
+     *  @param p the place
+     */
+    static int infectious( Place p ) {
+	long off = of( p ) + 4;
+	return at( off ).getInt( in( off ) );
+    }
+
+    /** @return the transmissivity of a place
+     *  @param p the place
+     */
+    static double transmissivity( Place p ) {
+	long off = of( p ) + 8;
+	return at( off ).getDouble( in( off ) );
+    }
+
+    /** Record a change of infection state
+     *  @param p the person
+     *  @param s the new state
+     */
+    static void state( Person p, Person.States s ) {
+	if (p.serial < 0) return; // a stand-in from elsewhere
+	long off = of( p );
+	at( off ).put( in( off ), (byte)s.ordinal() );
+    }
+
+    /** Record someone's workplace
+     *  @param p the person
+     *  @param w the workplace
+     */
+    static void job( Person p, WorkPlace w ) {
+	long off = of( p ) + 8;
+	at( off ).putInt( in( off ), (w == null) ? -1 : w.id );
+    }
+
+    /** Record where someone is
+     *  @param p the person
+     *  @param where the place, or null while in transit
+     */
+    static void moved( Person p, Place where ) {
+	if (p.serial < 0) return; // a stand-in from elsewhere
+	long off = of( p ) + 12;
+	at( off ).putInt( in( off ), (where == null) ? -1 : where.id );
+    }
+
+    /** Record the number of infectious people in a place
+     *  @param p the place
+     *  @param n the number
+     */
+    static void infectious( Place p, int n ) {
+	long off = of( p ) + 4;
+	at( off ).putInt( in( off ), n );
+    }
+
+    /** Record a change of transmissivity
+     *  @param p the place
+     *  @param t the new transmissivity
+     */
+    static void transmissivity( Place p, double t ) {
+	long off = of( p ) + 8;
+	at( off ).putDouble( in( off ), t );
+    }
+
+    /** Record a place closing or reopening
+     *  @param p the place
+     *  @param closed true if it is now closed
+     */
+    static void closed( Place p, boolean closed ) {
+	long off = of( p ) + 1;
+	at( off ).put( in( off ), (byte)(closed ? 1 : 0) );
+    }
+
+    /** Record the time of a daily report, so readers know how current
+     *  the store is
+     *  @param t the time
+     */
+    static void time( double t ) {
+	windows[0].putDouble( 24, t );
+    }
+
+    /** Write out everything and close the store
+     */
+    static void close() {
+	if (windows == null) return;
+	settle(); // the model goes on without the store
+	open = false;
+	time( Simulator.now() );
+	for (MappedByteBuffer w: windows) w.force();
+	windows = null; // the mappings go away when collected
+	try {
+	    file.close();
+	} catch ( IOException e ) {
+	    Error.warn( "store: can't close, " + e.getMessage() );
+	}
+    }
+
+    /** Print a summary of a store
+     *  @param f the store file
+     */
+    private static void summarize( File f ) {
+	MappedByteBuffer[] w = null;
+	try (RandomAccessFile in = new RandomAccessFile( f, "r" )) {
+	    w = map( in.getChannel(), FileChannel.MapMode.READ_ONLY,
+		in.length()
+	    ); // the mappings outlive the file
+	} catch ( IOException e ) {
+	    Error.fatal( "Can't map " + f + ": " + e.getMessage() );
+	}
+	if ((w.length == 0) || (w[0].capacity() < header)
+	||  (w[0].getInt( 0 ) != magic) || (w[0].getInt( 4 ) != version)) {
+	    Error.fatal( f + ": not a store" );
+	}
+	long people = w[0].getLong( 8 );
+	long places = w[0].getLong( 16 );
+	long base = header + people * record;
+
+	Person.States[] states = Person.States.values();
+	long[] inState = new long[states.length];
+	long employed = 0;
+	long transit = 0;
+	for (long i = 0; i < people; i++) {
+	    long off = header + i * record;
+	    ByteBuffer b = w[(int)(off >>> windowBits)];
+	    int o = (int)(off & (window - 1));
+	    inState[b.get( o )]++;
+	    employed = employed + b.get( o + 1 );
+	    if ((b.getInt( o + 12 ) < 0)
+	    &&  (b.get( o ) != Person.States.dead.ordinal())) {
+		transit = transit + 1; // the dead are nowhere, not in transit
+	    }
+	}
+	String[] kindName = { "home", "work", "other" };
+	long[] ofKind = new long[kindName.length];
+	long closed = 0;
+	long infectious = 0;
+	for (long i = 0; i < places; i++) {
+	    long off = base + i * record;
+	    ByteBuffer b = w[(int)(off >>> windowBits)];
+	    int o = (int)(off & (window - 1));
+	    ofKind[b.get( o )]++;
+	    closed = closed + b.get( o + 1 );
+	    if (b.getInt( o + 4 ) > 0) infectious = infectious + 1;
+	}
+
+	System.out.println( "at " + w[0].getDouble( 24 ) + ", "
+	    + people + " people, " + places + " places"
+	);
+	for (Person.States s: states) {
+	    System.out.println( s + " " + inState[s.ordinal()] );
+	}
+	System.out.println(
+	    "employed " + employed + ", in transit " + transit
+	);
+	for (int k = 0; k < kindName.length; k++) {
+	    System.out.println( kindName[k] + " places " + ofKind[k] );
+	}
+	System.out.println( "closed " + closed
+	    + ", with infectious occupants " + infectious
+	);
+    }
+
+    /** The main program, to summarize a store
+     *  @param args the store file
+     */
+    public static void main( String[] args ) {
+	try {
+	    if (args.length != 1) Error.fatal( "Usage: java AgentStore file" );
+	    summarize( new File( args[0] ) );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+    }
+}
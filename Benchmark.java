@@ -0,0 +1,258 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scaling benchmark of the simulator over a range of populations
+ * Usage: java Benchmark [-reorder] file [maxpop [days [label]]]
+ * <p>
+ * Populations go up by factors of ten from 1000 to maxpop (default 1e8),
+ * each simulated for some days (default 30) from the same seed, so runs
+ * of different versions of the simulator can be compared.  With -reorder,
+ * each community is reordered as the reorder command does, and the label
+ * gets +rcm added, so runs with and without it can be compared.  Each
+ * population runs in a Java process of its own, with the same options as
+ * this one, so that its memory use is measured alone; the sweep stops at
+ * the first population that fails, typically for lack of heap.
+ * <p>
+ * One line per population is added to the file, in CSV with a header
+ * line if the file is new: the label (default -), the population, days
+ * and seed, seconds to build the community and to run it, events and
+ * events per second, peak heap bytes, heap bytes per person just after
+ * building, collections and seconds in collection, the most events ever
+ * waiting, and ok or failed.
+ * @author Thomas McDowell
+ * @version 1/19/2021
+ * Status: New code
+ * @see Epidemic
+ */
+public class Benchmark {
+    private Benchmark(){} // prevent anyone from instantiating this class
+
+    private static final String header = "label,pop,days,seed,"
+	+ "build_s,run_s,events,events_per_s,peak_heap_bytes,bytes_per_agent,"
+	+ "gc_count,gc_s,event_queue_high_water,status";
+
+    private static final long seed = 20210119; // the same for every run
+
+    /** @return the community description for a benchmark run
+     *  @param pop the population
+     *  @param days how many days to simulate
+     *  @param reorder true to reorder the community before running it
+     */
+    private static String scenario( int pop, int days, boolean reorder ) {
+	return "pop\t" + pop + ";\n"
+	    + "house\t3.3,3;\n"
+	    + "workplace\t10,9;\n"
+	    + "infected\t" + Math.max( 1, pop / 1000 ) + ";\n"
+	    + "employed\t0.5;\n"
+	    + "seed\t" + seed + ";\n"
+	    + "end\t" + days + ";\n"
+	    + (reorder ? "reorder\trcm;\n" : "");
+    }
+
+    // tools for measuring the JVM
+
+    private static long heapUsed() {
+	Runtime r = Runtime.getRuntime();
+	return r.totalMemory() - r.freeMemory();
+    }
+
+    private static long heapPeak() {
+	long peak = 0;
+	for (MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans()) {
+	    if (p.getType() == MemoryType.HEAP) {
+		peak = peak + p.getPeakUsage().getUsed();
+	    }
+	}
+	return peak;
+    }
+
+    private static long[] gcTotals() {
+	long[] totals = new long[2]; // collections, milliseconds
+	for (GarbageCollectorMXBean gc:
+	    ManagementFactory.getGarbageCollectorMXBeans()
+	) {
+	    totals[0] = totals[0] + Math.max( 0, gc.getCollectionCount() );
+	    totals[1] = totals[1] + Math.max( 0, gc.getCollectionTime() );
+	}
+	return totals;
+    }
+
+    /** Collect all garbage, as far as that can be done
+     */
+    private static void collect() {
+	for (int i = 0; i < 3; i++) System.gc();
+    }
+
+    /** Run one population and measure it, in this process
+     *  @param pop the population
+     *  @param days how many days to simulate
+     *  @param reorder true to reorder the community before running it
+     *  @return the measures, as CSV, from build_s to event_queue_high_water
+     *  Forced collections are left out of the collection totals.
+     */
+    private static String measure( int pop, int days, boolean reorder ) {
+	Person.reports = new PrintStream( OutputStream.nullOutputStream() );
+	Epidemic.readScenario(
+	    new MyScanner( scenario( pop, days, reorder ) )
+	);
+
+	collect();
+	long before = heapUsed();
+	for (MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans()) {
+	    p.resetPeakUsage();
+	}
+
+	long[] gc0 = gcTotals();
+	long t0 = System.nanoTime();
+	Epidemic.prepare();
+	long t1 = System.nanoTime();
+	long[] gc1 = gcTotals();
+
+	collect();
+	long perAgent = Math.max( 0, heapUsed() - before ) / pop; // noisy
+
+	long[] gc2 = gcTotals();
+	long t2 = System.nanoTime();
+	Epidemic.run();
+	long t3 = System.nanoTime();
+	long[] gc3 = gcTotals();
+
+	double build = (t1 - t0) / 1e9;
+	double run = (t3 - t2) / 1e9;
+	long events = Simulator.triggered();
+	long gcCount = (gc1[0] - gc0[0]) + (gc3[0] - gc2[0]);
+	double gcSeconds = ((gc1[1] - gc0[1]) + (gc3[1] - gc2[1])) / 1000.0;
+	return String.format( Locale.ROOT, // CSV must not get decimal commas
+	    "%.3f,%.3f,%d,%.0f,%d,%d,%d,%.3f,%d",
+	    build, run, events, (run > 0) ? events / run : 0.0,
+	    heapPeak(), perAgent, gcCount, gcSeconds, Simulator.highWater()
+	);
+    }
+
+    /** Run one population in a process of its own
+     *  @param pop the population
+     *  @param days how many days to simulate
+     *  @param reorder true to reorder the community before running it
+     *  @return the measures, as from measure(), or null if the run failed
+     *  @throws IOException if the process can't be started
+     */
+    private static String spawn( int pop, int days, boolean reorder )
+	throws IOException
+    {
+	List<String> command = new ArrayList<String>();
+	command.add( ProcessHandle.current().info().command().orElse(
+	    System.getProperty( "java.home" ) + "/bin/java"
+	) );
+	command.addAll(
+	    ManagementFactory.getRuntimeMXBean().getInputArguments()
+	);
+	command.addAll( Arrays.asList(
+	    "-cp", System.getProperty( "java.class.path" ), "Benchmark",
+	    "-run", "" + pop, "" + days
+	) );
+	if (reorder) command.add( "rcm" );
+	Process p = new ProcessBuilder( command )
+	    .redirectError( ProcessBuilder.Redirect.INHERIT ).start();
+
+	String result = null;
+	try (BufferedReader in = new BufferedReader(
+	    new InputStreamReader( p.getInputStream() )
+	)) {
+	    for (String line = in.readLine(); line != null; ) {
+		result = line; // the measures are the last line
+		line = in.readLine();
+	    }
+	}
+	try {
+	    if (p.waitFor() != 0) return null;
+	} catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	    return null;
+	}
+	return result;
+    }
+
+    /** Sweep the populations, adding the results to a file
+     *  @param f the file
+     *  @param maxPop the largest population
+     *  @param days how many days to simulate each
+     *  @param label what to call this version of the simulator
+     *  @param reorder true to reorder each community before running it
+     *  @throws IOException if the file can't be written
+     */
+    private static void sweep(
+	File f, int maxPop, int days, String label, boolean reorder
+    ) throws IOException {
+	if (reorder) label = label + "+rcm";
+	boolean fresh = !f.exists() || (f.length() == 0);
+	try (PrintWriter out = new PrintWriter( new FileWriter( f, true ) )) {
+	    if (fresh) out.println( header );
+	    for (long pop = 1000; pop <= maxPop; pop = pop * 10) {
+		String result = spawn( (int)pop, days, reorder );
+		String line = label + "," + pop + "," + days + "," + seed + ","
+		    + ((result == null) ? ",,,,,,,,,failed" : result + ",ok");
+		out.println( line );
+		out.flush(); // keep what we have if a later run takes forever
+		System.out.println( line );
+		if (result == null) break; // bigger won't do any better
+	    }
+	}
+    }
+
+    /** The main program
+     *  @param args optionally -reorder, then the results file, and
+     *  optionally the largest population, the number of days, and a
+     *  label for this version
+     */
+    public static void main( String[] args ) {
+	try {
+	    boolean reorder = (args.length > 0) && args[0].equals( "-reorder" );
+	    if (reorder) args = Arrays.copyOfRange( args, 1, args.length );
+	    if ((args.length >= 3) && (args.length <= 4)
+	    &&  args[0].equals( "-run" )) {
+		int pop = Integer.parseInt( args[1] );
+		int days = Integer.parseInt( args[2] );
+		reorder = (args.length == 4) && args[3].equals( "rcm" );
+		System.out.println( measure( pop, days, reorder ) );
+	    } else if ((args.length >= 1) && (args.length <= 4)) {
+		long maxPop = (args.length > 1)
+		    ? (long)Double.parseDouble( args[1] ) : 100000000;
+		int days = (args.length > 2) ? Integer.parseInt( args[2] ) : 30;
+		String label = (args.length > 3) ? args[3] : "-";
+		if ((maxPop < 1000) || (maxPop > Integer.MAX_VALUE)) {
+		    Error.fatal( "maxpop "+maxPop+": out of range" );
+		}
+		if (days < 1) Error.fatal( "days "+days+": too few" );
+		sweep( new File( args[0] ), (int)maxPop, days, label, reorder );
+	    } else {
+		Error.fatal( "Usage: java Benchmark [-reorder] file "
+		    + "[maxpop [days [label]]]"
+		);
+	    }
+	} catch ( NumberFormatException e ) {
+	    Error.warn( "Not a number: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( IOException e ) {
+	    Error.warn( "Benchmark failed: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+	System.exit( 0 );
+    }
+}
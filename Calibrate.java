@@ -0,0 +1,354 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Calibration of scenario parameters to an observed epidemic, ABC-style
+ * Usage: java Calibrate observed tolerance workers base candidates
+ * <p>
+ * The observed file holds daily counts in the format of the daily
+ * reports, such as <TT>at 12.0, bed = 31, dead = 2</TT>; any state left
+ * out is not observed, and lines that are not counts are ignored, so the
+ * output of a run can serve.  The base file is a community description
+ * lacking the parameters to fit, and each line of the candidates file
+ * gives them for one candidate, for example
+ * <TT>house 3.3,3; employed 0.5; transmissivity 1.2,0.8;</TT>
+ * with the usual tabs; blank lines and comments are skipped.
+ * <p>
+ * Candidates run in parallel on the given number of workers, each with
+ * its own copy of the simulator classes, as JobServer does, and each run
+ * is scored from the daily counts in its stream of Results.  The distance
+ * of a run from the observations is the root of the summed squares of its
+ * differences from each observed count so far; it can only grow, so a
+ * run is stopped as soon as it is beyond the tolerance, by cancelling its
+ * subscription.  Each daily report waits for the scorer to take it, so
+ * the run stops at the very report that put it beyond the tolerance, and
+ * a rejected candidate costs only the days it took to go wrong.  Candidates
+ * that run to the end within the tolerance are accepted, as approximate
+ * Bayesian computation would; those that end before the last observation
+ * are rejected.  Candidates should not fork, since each branch would be
+ * scored as more days of the same run.  A line for each candidate, in
+ * order, and a summary are printed at the end.
+ * @author Thomas McDowell
+ * @version 1/28/2021
+ * Status: New code
+ * @see Epidemic
+ * @see JobServer
+ */
+public class Calibrate {
+    private Calibrate(){} // prevent anyone from instantiating this class
+
+    private static final Person.States[] states = Person.States.values();
+    private static final String[] abbreviation = {
+	"un", "lat", "inf", "bed", "rec", "dead"
+    };
+
+    // a daily report, and one count within it
+    private static final Pattern report = Pattern.compile(
+	"at ([0-9.eE+-]+)((, [a-z]+ = -?[0-9]+)*)"
+    );
+    private static final Pattern count = Pattern.compile(
+	", ([a-z]+) = (-?[0-9]+)"
+    );
+
+    // the observations, by report time, with -1 for any state not observed
+    private static final HashMap<Double,int[]> observed = new HashMap<>();
+    private static double lastObserved = 0.0;
+
+    /** The private copy of the simulator for each worker thread
+     *  Records of its results are of its own classes, not of ours, so
+     *  their fields are read through reflection.
+     */
+    private static final class Worker {
+	final Method runJob;
+	final Method open;     // Results.open()
+	final Class<?> daily;  // Results.Daily
+	final Field time;      // Results.Record.time
+	final Field counts;    // Results.Daily.counts
+	final Method get;      // Counters.View.get()
+	final Object[] states; // Person.States.values()
+
+	Worker() {
+	    try {
+		ClassLoader loader = JobServer.isolatedLoader();
+		runJob = Class.forName( "Epidemic", true, loader )
+		    .getMethod( "runJob", String.class, PrintStream.class );
+		open = Class.forName( "Results", true, loader )
+		    .getMethod( "open", int.class );
+		daily = Class.forName( "Results$Daily", true, loader );
+		time = daily.getField( "time" );
+		counts = daily.getField( "counts" );
+		Class<?> s = Class.forName( "Person$States", true, loader );
+		get = Class.forName( "Counters$View", true, loader )
+		    .getMethod( "get", s );
+		states = s.getEnumConstants();
+	    } catch ( ReflectiveOperationException e ) {
+		throw new IllegalStateException( "can't load simulator", e );
+	    }
+	}
+
+	/** @return the counts of a record, or null if it isn't daily
+	 *  @param r the record
+	 *  @param t set to the time of the record
+	 */
+	int[] counts( Object r, double[] t ) {
+	    if (!daily.isInstance( r )) return null;
+	    try {
+		t[0] = time.getDouble( r );
+		Object view = counts.get( r );
+		int[] c = new int[states.length];
+		for (int i = 0; i < states.length; i++) {
+		    c[i] = (Integer)get.invoke( view, states[i] );
+		}
+		return c;
+	    } catch ( ReflectiveOperationException e ) {
+		throw new IllegalStateException( "can't read results", e );
+	    }
+	}
+    }
+
+    private static final ThreadLocal <Worker> worker =
+	ThreadLocal.withInitial( Worker::new );
+
+    /** @return the counts in a daily report, or null if it isn't one
+     *  @param line the line that might be a report
+     *  @param time set to the time of the report
+     *  States that the report leaves out are given as -1.
+     */
+    private static int[] parse( String line, double[] time ) {
+	Matcher m = report.matcher( line.trim() );
+	if (!m.matches()) return null;
+	try {
+	    time[0] = Double.parseDouble( m.group( 1 ) );
+	} catch ( NumberFormatException e ) {
+	    return null;
+	}
+	int[] counts = new int[states.length];
+	Arrays.fill( counts, -1 );
+	Matcher c = count.matcher( m.group( 2 ) );
+	while (c.find()) {
+	    for (int s = 0; s < states.length; s++) {
+		if (abbreviation[s].equals( c.group( 1 ) )) {
+		    counts[s] = Integer.parseInt( c.group( 2 ) );
+		}
+	    }
+	}
+	return counts;
+    }
+
+    /** Read the observations
+     *  @param file the file of observed counts
+     *  @throws IOException if it can't be read
+     */
+    private static void observe( String file ) throws IOException {
+	double[] t = new double[1];
+	for (String line: Files.readAllLines( Paths.get( file ) )) {
+	    int[] counts = parse( line, t );
+	    if (counts == null) continue;
+	    if (observed.put( t[0], counts ) != null) {
+		Error.warn( "observed at "+t[0]+": more than once" );
+	    }
+	    lastObserved = Math.max( lastObserved, t[0] );
+	}
+	if (observed.isEmpty()) Error.fatal( file + ": nothing observed" );
+    }
+
+    /** How one candidate did
+     */
+    private static final class Score {
+	double distance = 0.0; // so far
+	double time = 0.0;     // of the last report seen
+	int matched = 0;       // observed days reported so far
+	boolean rejected = false;
+	String failure = null; // what the run said when it failed
+    }
+
+    /** The subscriber to the results of a candidate, scoring each day
+     *  Once the candidate is rejected, the subscription is cancelled, and
+     *  with no one left listening, the run stops at the report that was
+     *  being scored, along with any later branches of a forked run.
+     */
+    private static final class Scorer implements Flow.Subscriber <Object> {
+	final Score score = new Score();
+	final double tolerance;
+	final Worker w;
+	final CountDownLatch done = new CountDownLatch( 1 );
+	private Flow.Subscription subscription;
+
+	Scorer( double tolerance, Worker w ) {
+	    this.tolerance = tolerance;
+	    this.w = w;
+	}
+
+	public void onSubscribe( Flow.Subscription s ) {
+	    subscription = s;
+	    s.request( Long.MAX_VALUE );
+	}
+
+	public void onNext( Object r ) {
+	    double[] t = new double[1];
+	    int[] counts = w.counts( r, t );
+	    if ((counts == null) || score.rejected) return;
+	    score.time = t[0];
+	    int[] o = observed.get( t[0] );
+	    if (o == null) return;
+	    score.matched = score.matched + 1;
+	    double sum = score.distance * score.distance;
+	    for (int i = 0; i < states.length; i++) {
+		if (o[i] < 0) continue;
+		double d = counts[i] - o[i];
+		sum = sum + d * d;
+	    }
+	    score.distance = Math.sqrt( sum );
+	    if (score.distance > tolerance) {
+		score.rejected = true;
+		subscription.cancel(); // which stops the run
+		done.countDown();
+	    }
+	}
+
+	public void onError( Throwable e ) {
+	    if (score.failure == null) score.failure = String.valueOf( e );
+	    done.countDown();
+	}
+
+	public void onComplete() {
+	    done.countDown();
+	}
+    }
+
+    /** Run one candidate
+     *  @param scenario the base with the candidate's parameters added
+     *  @param tolerance the greatest distance accepted
+     *  @return how it did
+     */
+    private static Score run( String scenario, double tolerance ) {
+	Worker w = worker.get();
+	Scorer scorer = new Scorer( tolerance, w );
+
+	// keep what the run says, to show only if it fails
+	ByteArrayOutputStream said = new ByteArrayOutputStream();
+	PrintStream out = new PrintStream( said, true, StandardCharsets.UTF_8 );
+	try {
+	    @SuppressWarnings( "unchecked" )
+	    Flow.Publisher <Object> results =
+		(Flow.Publisher <Object>)w.open.invoke( null, 1024 );
+	    results.subscribe( scorer );
+	    w.runJob.invoke( null, scenario, out );
+	    scorer.done.await();
+	} catch ( InvocationTargetException e ) {
+	    // Error.Fatal from the private copy, or a bug in the model
+	    String[] lines =
+		said.toString( StandardCharsets.UTF_8 ).trim().split( "\n" );
+	    String last = lines[lines.length - 1];
+	    scorer.score.failure = last.isEmpty()
+		? String.valueOf( e.getCause() ) : last;
+	} catch ( IllegalAccessException e ) {
+	    scorer.score.failure = e.toString();
+	} catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	    scorer.score.failure = e.toString();
+	}
+	if (!scorer.score.rejected && (scorer.score.failure == null)
+	&&  (scorer.score.matched < observed.size())) {
+	    scorer.score.rejected = true; // ended before all was observed
+	}
+	return scorer.score;
+    }
+
+    /** The main program
+     *  @param args as in the usage
+     */
+    public static void main( String[] args ) {
+	try {
+	    if (args.length != 5) Error.fatal( "Usage: java Calibrate"
+		+ " observed tolerance workers base candidates"
+	    );
+	    observe( args[0] );
+	    double tolerance = Double.parseDouble( args[1] );
+	    int workers = Integer.parseInt( args[2] );
+	    if (tolerance < 0) Error.fatal( "tolerance "+tolerance+": < 0" );
+	    if (workers < 1) Error.fatal( "workers "+workers+": too few" );
+	    String base = new String(
+		Files.readAllBytes( Paths.get( args[3] ) ),
+		StandardCharsets.UTF_8
+	    );
+	    ArrayList<String> candidates = new ArrayList<String>();
+	    for (String line: Files.readAllLines( Paths.get( args[4] ) )) {
+		String l = line.trim();
+		if (l.isEmpty() || l.startsWith( "//" )) continue;
+		candidates.add( line );
+	    }
+	    Error.quitIfAny();
+
+	    ExecutorService pool = Executors.newFixedThreadPool( workers );
+	    List<Future<Score>> scores = new ArrayList<Future<Score>>();
+	    for (String c: candidates) {
+		String scenario = base + "\n" + c + "\n";
+		scores.add( pool.submit( ()-> run( scenario, tolerance ) ) );
+	    }
+
+	    int accepted = 0;
+	    double days = 0.0;
+	    for (int i = 0; i < candidates.size(); i++) {
+		Score s = scores.get( i ).get();
+		String what;
+		if (s.failure != null) {
+		    what = "failed, " + s.failure;
+		} else if (s.rejected && (s.distance > tolerance)) {
+		    what = "rejected at " + s.time + ", distance "
+			+ String.format( Locale.ROOT, "%.1f", s.distance );
+		} else if (s.rejected) {
+		    what = "rejected, ended at " + s.time;
+		} else {
+		    what = "accepted, distance "
+			+ String.format( Locale.ROOT, "%.1f", s.distance );
+		    accepted = accepted + 1;
+		}
+		days = days + s.time;
+		System.out.println( "candidate " + (i + 1) + ": " + what
+		    + ": " + candidates.get( i ).trim()
+		);
+	    }
+	    pool.shutdown();
+	    System.out.println( "accepted " + accepted
+		+ " of " + candidates.size() + ", simulating "
+		+ String.format( Locale.ROOT, "%.1f%%",
+		    100.0 * days / (lastObserved * candidates.size())
+		)
+		+ " of the days observed"
+	    );
+	} catch ( NumberFormatException e ) {
+	    Error.warn( "Not a number: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( IOException e ) {
+	    Error.warn( "Calibrate failed: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( InterruptedException | ExecutionException e ) {
+	    Error.warn( "Calibrate failed: " + e );
+	    System.exit( 1 );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+	System.exit( 0 ); // don't wait for helper threads
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Flow;
+
+/**
+ * Checks of the simulator that one run of testepi can't show
+ * Usage: java Check
+ * <p>
+ * Each check runs small seeded simulations as jobs, as JobServer does,
+ * and compares what they report.  A line is printed for each check, and
+ * the program exits with status 1 if any of them failed.
+ * @author Thomas McDowell
+ * @version 2/1/2021
+ * Status: New code
+ * @see Epidemic
+ */
+public class Check {
+    private Check(){} // prevent anyone from instantiating this class
+
+    // a small community, quick to simulate, with the usual tabs
+    private static final String small =
+	"pop\t2000;\n"
+	+ "house\t3.3,3;\n"
+	+ "workplace\t10,9;\n"
+	+ "infected\t10;\n"
+	+ "employed\t0.5;\n"
+	+ "seed\t42;\n"
+	+ "end\t30.0001;\n";
+
+    private static int failed = 0;
+
+    /** Say how a check went
+     *  @param what the check
+     *  @param ok true if it passed
+     */
+    private static void check( String what, boolean ok ) {
+	System.out.println( (ok ? "ok: " : "FAILED: ") + what );
+	if (!ok) failed = failed + 1;
+    }
+
+    /** @return all that a job reported
+     *  @param scenario the community description
+     */
+    private static String job( String scenario ) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	try {
+	    Epidemic.runJob( scenario,
+		new PrintStream( out, true, StandardCharsets.UTF_8 )
+	    );
+	} catch ( Error.Fatal e ) {
+	    // what it said is in the output
+	} finally {
+	    Error.err = System.err;
+	}
+	return out.toString( StandardCharsets.UTF_8 );
+    }
+
+    /** The same seeded job, run twice in one program, reports the same
+     */
+    private static void repeatable() {
+	String first = job( small );
+	String second = job( small );
+	check( "a seeded job repeats", first.equals( second ) );
+    }
+
+    /** @return the daily reports in all that a job reported
+     *  @param said all it reported
+     */
+    private static String reports( String said ) {
+	StringBuilder s = new StringBuilder();
+	for (String line: said.split( "\n" )) {
+	    if (line.startsWith( "at " ) && line.contains( ", un = " )) {
+		s.append( line ).append( '\n' );
+	    }
+	}
+	return s.toString();
+    }
+
+    /** A branch that changes nothing follows the run without a fork
+     */
+    private static void sameBranch() {
+	String plain = reports( job( small ) );
+	String forked = reports(
+	    job( small + "fork\t5;\nbranch\t1,1;\n" )
+	);
+	check( "a 1,1 branch follows the unforked run",
+	    plain.equals( forked )
+	);
+    }
+
+    /** A variant that scales nothing follows the lead run
+     */
+    private static void sameVariant() {
+	String said = job( small + "variant\t1,1;\n" );
+	StringBuilder variant = new StringBuilder();
+	for (String line: said.split( "\n" )) {
+	    if (line.startsWith( "variant 1 at " )) {
+		variant.append( line.substring( "variant 1 ".length() ) )
+		    .append( '\n' );
+	    }
+	}
+	check( "a 1,1 variant follows the lead",
+	    (variant.length() > 0)
+	    && reports( said ).equals( variant.toString() )
+	);
+    }
+
+    /** A community loaded from a saved graph runs as the one saved
+     */
+    private static void sameGraph() {
+	File f = null;
+	try {
+	    f = File.createTempFile( "check", ".graph" );
+	} catch ( IOException e ) {
+	    check( "a loaded graph repeats the saved run, " + e, false );
+	    return;
+	}
+	String saved = reports( job( small + "savegraph\t" + f + ";\n" ) );
+	String loaded = reports( job(
+	    "loadgraph\t" + f + ";\n"
+	    + "infected\t10;\n"
+	    + "seed\t42;\n"
+	    + "end\t30.0001;\n"
+	) );
+	f.delete();
+	check( "a loaded graph repeats the saved run",
+	    !saved.isEmpty() && saved.equals( loaded )
+	);
+    }
+
+    /** A run whose state is kept in a store reports as one that isn't,
+     *  through a fork and compaction
+     */
+    private static void stored() {
+	File f = null;
+	try {
+	    f = File.createTempFile( "check", ".store" );
+	} catch ( IOException e ) {
+	    check( "a stored run reports the same, " + e, false );
+	    return;
+	}
+	String scenario = small + "compact\t5;\nfork\t10;\n"
+	    + "branch\t0.5,1;\nbranch\t1,1;\n";
+	String plain = reports( job( scenario ) );
+	String kept = reports( job( scenario + "store\t" + f + ";\n" ) );
+	f.delete();
+	check( "a stored run reports the same",
+	    !plain.isEmpty() && plain.equals( kept )
+	);
+    }
+
+    /** A cached run is replayed as it ran, and only for the same run
+     */
+    private static void cached() {
+	File dir = null;
+	try {
+	    dir = Files.createTempDirectory( "check" ).toFile();
+	} catch ( IOException e ) {
+	    check( "a cached run replays, " + e, false );
+	    return;
+	}
+	String scenario = small + "cache\t" + dir + ",10;\n";
+	String first = job( scenario );
+	String second = job( scenario );
+	String other = job( scenario + "transmissivity\t1.2,0.8;\n" );
+	for (File f: dir.listFiles()) f.delete();
+	dir.delete();
+	check( "a cached run replays what it reported",
+	    !first.contains( "cache: results from" )
+	    && second.contains( "cache: results from" )
+	    && !reports( first ).isEmpty()
+	    && reports( first ).equals( reports( second ) )
+	);
+	check( "a run with another transmissivity misses the cache",
+	    !other.contains( "cache: results from" )
+	);
+    }
+
+    /** An epidemic that burns out is noticed, and the run skips ahead
+     */
+    private static void burnsOut() {
+	String said = job( small.replace( "pop\t2000;", "pop\t500;" )
+	    .replace( "end\t30.0001;", "end\t400;" )
+	);
+	String[] reports = reports( said ).split( "\n" );
+	String last = reports[reports.length - 1];
+	check( "a burnt out epidemic goes quiet",
+	    said.contains( "quiet at " )
+	    && last.contains( ", lat = 0, inf = 0, bed = 0," )
+	);
+    }
+
+    /** A quarantine of workplaces changes nothing until it fires, and
+     *  then slows the epidemic
+     */
+    private static void quarantined() {
+	String q = "quarantineworkplaces\t";
+	String plain = reports( job( small ) );
+	String never = reports( job( small + q + "9999,14;\n" ) );
+	String soon = reports( job( small + q + "1,100;\n" ) );
+	check( "a quarantine that never fires changes nothing",
+	    plain.equals( never )
+	);
+	check( "quarantining workplaces leaves more uninfected",
+	    uninfected( soon ) > uninfected( plain )
+	);
+    }
+
+    /** @return the count of uninfected people in the last daily report
+     *  @param reports the daily reports
+     */
+    private static int uninfected( String reports ) {
+	String[] lines = reports.split( "\n" );
+	String last = lines[lines.length - 1];
+	int from = last.indexOf( ", un = " ) + ", un = ".length();
+	String un = last.substring( from, last.indexOf( ',', from ) );
+	return Integer.parseInt( un );
+    }
+
+    /** A run stops at the very report its last subscriber cancelled on,
+     *  even if that subscriber lags behind
+     */
+    private static void stopsOnCancel() {
+	Flow.Publisher <Results.Record> results = Results.open( 1024 );
+	results.subscribe( new Flow.Subscriber <Results.Record> () {
+	    private Flow.Subscription s;
+
+	    public void onSubscribe( Flow.Subscription s ) {
+		this.s = s;
+		s.request( Long.MAX_VALUE );
+	    }
+
+	    public void onNext( Results.Record r ) {
+		if (!(r instanceof Results.Daily)) return;
+		try {
+		    Thread.sleep( 20 ); // a slow subscriber
+		} catch ( InterruptedException e ) {
+		    Thread.currentThread().interrupt();
+		}
+		if (r.time >= 5.0) s.cancel();
+	    }
+
+	    public void onError( Throwable e ) {}
+
+	    public void onComplete() {}
+	} );
+	String[] reports = reports( job( small ) ).split( "\n" );
+	String last = reports[reports.length - 1];
+	check( "a run stops at the report its subscriber cancelled on",
+	    last.startsWith( "at 5.0, " )
+	);
+    }
+
+    /** Antithetic normal numbers mirror the ordinary ones
+     */
+    private static void antithetic() {
+	final int n = 10000;
+	double[] x = new double[n];
+	double[] y = new double[n];
+	MyRandom.stream().setSeed( 20210127 );
+	for (int i = 0; i < n; i++) x[i] = MyRandom.stream().nextNormal();
+	MyRandom.stream().setSeed( 20210127 );
+	MyRandom.antithetic( true );
+	try {
+	    for (int i = 0; i < n; i++) y[i] = MyRandom.stream().nextNormal();
+	} finally {
+	    MyRandom.antithetic( false );
+	}
+
+	double sx = 0.0;
+	double sy = 0.0;
+	double sxx = 0.0;
+	double syy = 0.0;
+	double sxy = 0.0;
+	for (int i = 0; i < n; i++) {
+	    sx = sx + x[i];
+	    sy = sy + y[i];
+	    sxx = sxx + x[i] * x[i];
+	    syy = syy + y[i] * y[i];
+	    sxy = sxy + x[i] * y[i];
+	}
+	double r = (n * sxy - sx * sy)
+	    / Math.sqrt( (n * sxx - sx * sx) * (n * syy - sy * sy) );
+	check( "antithetic normals are negatively correlated, r = "
+	    + Math.round( r * 1000 ) / 1000.0, r < -0.99
+	);
+    }
+
+    /** The main program
+     *  @param args ignored
+     */
+    public static void main( String[] args ) {
+	repeatable();
+	sameBranch();
+	sameVariant();
+	sameGraph();
+	stored();
+	cached();
+	burnsOut();
+	quarantined();
+	stopsOnCancel();
+	antithetic();
+	System.exit( (failed > 0) ? 1 : 0 );
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Index of who shared a place with whom, over a window of recent days
+ * Each stay of a person in a place, from arrival to departure, is kept
+ * in a ring buffer in order of departure, linked both to the previous
+ * stay of the same person and to the previous stay in the same place, so
+ * the stays of either can be followed back in time without searching.
+ * Once a day, stays that ended before the window are dropped from the
+ * tail of the ring; the ring grows only while the window holds more
+ * stays than ever before.
+ * <p>
+ * Finding everyone who shared a place with someone walks back through
+ * their own stays within the window, and then once through the stays in
+ * each place they stayed in, back to the first of their stays there, so
+ * it costs time in proportion to those stays, however many times they
+ * went back to the same place, and not to the size of the community.
+ * Each day, the contacts
+ * of everyone who took to bed that day are traced, as a contact tracing
+ * policy would, and counted with the daily report.
+ * @author Thomas McDowell
+ * @version 1/26/2021
+ * Status: New code
+ * @see Place
+ * @see Person
+ */
+public class Colocation {
+    private Colocation(){} // prevent anyone from instantiating this class
+
+    /** true if stays are being indexed; test before calling the others
+     */
+    static boolean on = false;
+
+    private static double window;  // how far back to look, in days
+
+    // everyone and every place, by serial number and id, for queries
+    private static Person[] people;
+    private static Place[] places;
+
+    /** The index itself
+     *  Serializable, so a snapshot can hold it.
+     */
+    static final class Log implements Serializable {
+	private static final long serialVersionUID = 1L;
+	// the ring of stays; stay g is at g & (capacity - 1), if g >= tail
+	private int[] person;
+	private int[] place;
+	private double[] from;
+	private double[] to;
+	private long[] byPerson; // the previous stay of the same person
+	private long[] byPlace;  // the previous stay in the same place
+	private long head = 0;   // the next stay number
+	private long tail = 0;   // the oldest stay kept
+
+	// the latest stay of each person and in each place, or -1,
+	// and when each person arrived where they are now
+	private final long[] lastOfPerson;
+	private final long[] lastOfPlace;
+	private final double[] arrived;
+
+	// for finding each contact once, the query that last found them
+	private final int[] found;
+	private int query = 0;
+
+	// counts of tracing since the last report
+	private int cases = 0;
+	private long contacts = 0;
+
+	/** @param people the number of serial numbers of people
+	 *  @param places the number of place ids
+	 */
+	Log( int people, int places ) {
+	    allocate( 1024 );
+	    lastOfPerson = new long[people];
+	    lastOfPlace = new long[places];
+	    Arrays.fill( lastOfPerson, -1 );
+	    Arrays.fill( lastOfPlace, -1 );
+	    arrived = new double[people]; // everyone starts at home at 0
+	    found = new int[people];
+	}
+
+	private void allocate( int capacity ) {
+	    person = new int[capacity];
+	    place = new int[capacity];
+	    from = new double[capacity];
+	    to = new double[capacity];
+	    byPerson = new long[capacity];
+	    byPlace = new long[capacity];
+	}
+
+	/** Double the capacity of the ring, keeping every stay
+	 */
+	private void grow() {
+	    int[] oldPerson = person;
+	    int[] oldPlace = place;
+	    double[] oldFrom = from;
+	    double[] oldTo = to;
+	    long[] oldByPerson = byPerson;
+	    long[] oldByPlace = byPlace;
+	    int oldMask = person.length - 1;
+	    allocate( person.length * 2 );
+	    int mask = person.length - 1;
+	    for (long g = tail; g < head; g++) {
+		int i = (int)(g & oldMask);
+		int j = (int)(g & mask);
+		person[j] = oldPerson[i];
+		place[j] = oldPlace[i];
+		from[j] = oldFrom[i];
+		to[j] = oldTo[i];
+		byPerson[j] = oldByPerson[i];
+		byPlace[j] = oldByPlace[i];
+	    }
+	}
+    }
+
+    // the index, null if not on
+    private static Log log = null;
+
+    /** Start indexing stays, once the community is complete
+     *  @param days the number of days back that queries can look
+     */
+    static void start( double days ) {
+	window = days;
+	log = null;
+	index();
+	on = true;
+    }
+
+    /** Find everyone and every place, for queries, and make a new log
+     *  if there is none
+     */
+    private static void index() {
+	int n = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    n = Math.max( n, i.next().serial + 1 );
+	}
+	people = new Person[n];
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    people[p.serial] = p;
+	}
+	ArrayList<Place> list = new ArrayList<Place>();
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    list.add( i.next() );
+	}
+	places = new Place[list.size()];
+	for (Place p: list) places[p.id] = p;
+	if (log == null) log = new Log( people.length, places.length );
+    }
+
+    /** @return the index, for Snapshot
+     */
+    static Log log() {
+	return log;
+    }
+
+    /** Go back to an index as it was before
+     *  @param l a value returned by log()
+     *  Called by Snapshot, once the people and places are restored.
+     */
+    static void setLog( Log l ) {
+	log = l;
+	on = (l != null);
+	if (on) index();
+    }
+
+    /** Stop indexing, so a new simulation can start
+     */
+    static void reset() {
+	on = false;
+	log = null;
+	people = null;
+	places = null;
+    }
+
+    /** Note someone arriving at a place
+     *  @param p the person
+     *  @param t the time
+     */
+    static void arrive( Person p, double t ) {
+	log.arrived[p.serial] = t;
+    }
+
+    /** Note someone leaving a place, ending a stay there
+     *  @param p the person
+     *  @param where the place
+     *  @param t the time
+     */
+    static void depart( Person p, Place where, double t ) {
+	Log l = log;
+	if (l.head - l.tail == l.person.length) l.grow();
+	long g = l.head;
+	int i = (int)(g & (l.person.length - 1));
+	l.person[i] = p.serial;
+	l.place[i] = where.id;
+	l.from[i] = l.arrived[p.serial];
+	l.to[i] = t;
+	l.byPerson[i] = l.lastOfPerson[p.serial];
+	l.byPlace[i] = l.lastOfPlace[where.id];
+	l.lastOfPerson[p.serial] = g;
+	l.lastOfPlace[where.id] = g;
+	l.head = g + 1;
+    }
+
+    /** @return everyone who shared a place with someone within the window
+     *  @param x the person
+     *  @param t the current time
+     *  Sharing a place means being there at the same time, for however
+     *  short a time; x is not included.
+     */
+    static ArrayList<Person> contacts( Person x, double t ) {
+	Log l = log;
+	ArrayList<Person> result = new ArrayList<Person>();
+	l.query = l.query + 1;
+	l.found[x.serial] = l.query; // never a contact of oneself
+	double cutoff = t - window;
+
+	// the stays of x within the window, by place, latest first; each is
+	// a start and an end, and no two of one person overlap
+	LinkedHashMap<Place, ArrayList<double[]>> stays =
+	    new LinkedHashMap<Place, ArrayList<double[]>>();
+	Place now = x.place();
+	if (now != null) { // the stay going on now
+	    double a = Math.max( l.arrived[x.serial], cutoff );
+	    stays.computeIfAbsent( now, k -> new ArrayList<double[]>() )
+		.add( new double[] { a, t } );
+	}
+	int mask = l.person.length - 1;
+	for (long g = l.lastOfPerson[x.serial]; g >= l.tail; ) {
+	    int i = (int)(g & mask);
+	    if (l.to[i] < cutoff) break; // this and all before are too old
+	    double a = Math.max( l.from[i], cutoff );
+	    stays.computeIfAbsent( places[l.place[i]],
+		k -> new ArrayList<double[]>()
+	    ).add( new double[] { a, l.to[i] } );
+	    g = l.byPerson[i];
+	}
+
+	for (Map.Entry<Place, ArrayList<double[]>> e: stays.entrySet()) {
+	    share( e.getKey(), e.getValue(), result );
+	}
+	return result;
+    }
+
+    /** Add those who were in a place during some intervals to a result
+     *  @param p the place
+     *  @param during the intervals, each a start and an end, latest
+     *  first, none overlapping another
+     *  @param result the result, to which only those not already found
+     *  by this query are added
+     *  The stays in the place are walked once, back to the start of the
+     *  earliest interval.
+     */
+    private static void share(
+	Place p, ArrayList<double[]> during, ArrayList<Person> result
+    ) {
+	Log l = log;
+	double latest = during.get( 0 )[1];
+	for (Person q: p.occupants) { // there now, so there since arriving
+	    if ((l.arrived[q.serial] < latest)
+	    &&  (l.found[q.serial] != l.query)) {
+		l.found[q.serial] = l.query;
+		result.add( q );
+	    }
+	}
+	int mask = l.person.length - 1;
+	int k = 0; // the latest interval that might overlap this stay
+	for (long g = l.lastOfPlace[p.id]; g >= l.tail; ) {
+	    int i = (int)(g & mask);
+
+	    // intervals starting after this stay ended overlap no stay left
+	    while ((k < during.size()) && (during.get( k )[0] >= l.to[i])) {
+		k = k + 1;
+	    }
+	    if (k == during.size()) break; // left before them all
+
+	    // a stay that started after interval k ended misses all the rest
+	    int s = l.person[i];
+	    if ((l.from[i] < during.get( k )[1]) && (l.found[s] != l.query)) {
+		l.found[s] = l.query;
+		result.add( people[s] );
+	    }
+	    g = l.byPlace[i];
+	}
+    }
+
+    /** Trace the contacts of someone who has just taken to bed
+     *  @param x the person
+     *  @param t the time
+     */
+    static void traced( Person x, double t ) {
+	log.cases = log.cases + 1;
+	log.contacts = log.contacts + contacts( x, t ).size();
+    }
+
+    /** Report the tracing since the last report, and drop old stays
+     *  @param t the time of the report
+     */
+    static void report( double t ) {
+	Log l = log;
+	String s = "trace at " + t + ": cases = " + l.cases
+	    + ", contacts = " + l.contacts
+	    + ((l.cases == 0) ? ""
+		: " (" + (Math.round( 10.0 * l.contacts / l.cases ) / 10.0)
+		+ " each)"
+	    )
+	    + ", stays kept = " + (l.head - l.tail);
+	Person.reports.println( s );
+	ResultCache.line( s );
+	l.cases = 0;
+	l.contacts = 0;
+
+	int mask = l.person.length - 1;
+	while ((l.tail < l.head) && (l.to[(int)(l.tail & mask)] < t - window)) {
+	    l.tail = l.tail + 1;
+	}
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Immutable bipartite graph of who belongs to what places
+ * Agents and places are numbered densely from zero, by their ids, and the
+ * graph is held in compressed sparse row form, entirely in int arrays.
+ * @author Thomas McDowell
+ * @version 12/16/2020
+ * Status: New code
+ * @see Person
+ * @see Place
+ */
+public final class ContactGraph {
+    // the kinds of agents and places
+    static final byte person = 0;
+    static final byte employee = 1;
+    static final byte home = 0;
+    static final byte work = 1;
+    static final byte generic = 2; // places of some PlaceType
+
+    // the places each agent belongs to are agentPlace[agentStart[a]]
+    // up to but not including agentPlace[agentStart[a + 1]], home first,
+    // then any workplace, then places of any PlaceType
+    final int[] agentStart;
+    final int[] agentPlace;
+    final byte[] agentKind;
+
+    // the agents in the order of the population they were taken from,
+    // which is shuffled, and not the order of their numbers
+    final int[] agentOrder;
+
+    // the members of each place are placeAgent[placeStart[p]]
+    // up to but not including placeAgent[placeStart[p + 1]]
+    final int[] placeStart;
+    final int[] placeAgent;
+    final byte[] placeKind;
+    final double[] transmissivity;
+
+    // used by the file format to catch wrong or damaged files
+    private static final int magic = 0x45504947; // "EPIG"
+    private static final int version = 2;
+
+    private ContactGraph(
+	int[] agentStart, int[] agentPlace, byte[] agentKind, int[] agentOrder,
+	int[] placeStart, int[] placeAgent, byte[] placeKind,
+	double[] transmissivity
+    ) {
+	this.agentStart = agentStart;
+	this.agentPlace = agentPlace;
+	this.agentKind = agentKind;
+	this.agentOrder = agentOrder;
+	this.placeStart = placeStart;
+	this.placeAgent = placeAgent;
+	this.placeKind = placeKind;
+	this.transmissivity = transmissivity;
+    }
+
+    /** @return the number of agents in the graph
+     */
+    public int agents() {
+	return agentKind.length;
+    }
+
+    /** @return the number of places in the graph
+     */
+    public int places() {
+	return placeKind.length;
+    }
+
+    /** @param a an agent
+     *  @return the home of agent a
+     */
+    public int home( int a ) {
+	return agentPlace[agentStart[a]];
+    }
+
+    /** @param a an agent
+     *  @return the workplace of agent a, or -1 if a has none
+     */
+    public int workplace( int a ) {
+	for (int i = agentStart[a]; i < agentStart[a + 1]; i++) {
+	    if (placeKind[agentPlace[i]] == work) return agentPlace[i];
+	}
+	return -1;
+    }
+
+    /** @param p a place
+     *  @return the number of members of place p
+     */
+    public int size( int p ) {
+	return placeStart[p + 1] - placeStart[p];
+    }
+
+    /** @param p a place
+     *  @return the kind of place p is
+     */
+    static byte kind( Place p ) {
+	if (p instanceof WorkPlace) return work;
+	if (p instanceof GenericPlace) return generic;
+	return home;
+    }
+
+    /** Export the community as it has been built
+     *  @return a new graph of all people and places
+     *  Ids of people and places must be dense when this is called.
+     */
+    public static ContactGraph build() {
+	int agents = 0;
+	int places = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); i.next()) {
+	    agents = agents + 1;
+	}
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); i.next()) {
+	    places = places + 1;
+	}
+
+	// first pass, count the members of each place, by place
+	byte[] placeKind = new byte[places];
+	double[] transmissivity = new double[places];
+	int[] placeStart = new int[places + 1];
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    placeKind[p.id] = kind( p );
+	    transmissivity[p.id] = p.transmissivity();
+	    for (Person m: p.members()) placeStart[p.id + 1]++;
+	}
+	for (int p = 0; p < places; p++) {
+	    placeStart[p + 1] = placeStart[p + 1] + placeStart[p];
+	}
+
+	// second pass, fill in the members of each place
+	int[] placeAgent = new int[placeStart[places]];
+	int[] fill = new int[places];
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    for (Person m: p.members()) {
+		placeAgent[placeStart[p.id] + fill[p.id]] = m.id;
+		fill[p.id]++;
+	    }
+	}
+
+	// the transpose, the places of each agent, homes first
+	byte[] agentKind = new byte[agents];
+	int[] agentStart = new int[agents + 1];
+	for (int m: placeAgent) agentStart[m + 1]++;
+	for (int a = 0; a < agents; a++) {
+	    agentStart[a + 1] = agentStart[a + 1] + agentStart[a];
+	}
+	int[] agentPlace = new int[agentStart[agents]];
+	fill = new int[agents];
+	for (int kind = home; kind <= generic; kind++) {
+	    for (int p = 0; p < places; p++) {
+		if (placeKind[p] != kind) continue;
+		for (int i = placeStart[p]; i < placeStart[p + 1]; i++) {
+		    int a = placeAgent[i];
+		    agentPlace[agentStart[a] + fill[a]] = p;
+		    fill[a]++;
+		}
+	    }
+	}
+	int[] agentOrder = new int[agents];
+	int k = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    agentKind[p.id] = (p instanceof Employee) ? employee : person;
+	    agentOrder[k++] = p.id;
+	}
+
+	return new ContactGraph(
+	    agentStart, agentPlace, agentKind, agentOrder,
+	    placeStart, placeAgent, placeKind, transmissivity
+	);
+    }
+
+    /** Write this graph to a file
+     *  @param f the file to write
+     *  @throws IOException if the file cannot be written
+     */
+    public void save( File f ) throws IOException {
+	try (DataOutputStream out = new DataOutputStream(
+	    new BufferedOutputStream( new FileOutputStream( f ), 1 << 16 )
+	)) {
+	    out.writeInt( magic );
+	    out.writeInt( version );
+	    out.writeInt( agents() );
+	    out.writeInt( places() );
+	    out.writeInt( agentPlace.length );
+	    for (int a = 0; a < agents(); a++) out.writeByte( agentKind[a] );
+	    for (int i: agentStart) out.writeInt( i );
+	    for (int i: agentPlace) out.writeInt( i );
+	    for (int i: agentOrder) out.writeInt( i );
+	    for (int p = 0; p < places(); p++) out.writeByte( placeKind[p] );
+	    for (double t: transmissivity) out.writeDouble( t );
+	    for (int i: placeStart) out.writeInt( i );
+	    for (int i: placeAgent) out.writeInt( i );
+	}
+    }
+
+    /** Read a graph written by save()
+     *  @param f the file to read
+     *  @return the graph read from f
+     *  @throws IOException if the file cannot be read or is not a graph
+     */
+    public static ContactGraph load( File f ) throws IOException {
+	try (DataInputStream in = new DataInputStream(
+	    new BufferedInputStream( new FileInputStream( f ), 1 << 16 )
+	)) {
+	    if (in.readInt() != magic) {
+		throw new IOException( f + ": not a contact graph" );
+	    }
+	    if (in.readInt() != version) {
+		throw new IOException( f + ": wrong contact graph version" );
+	    }
+	    int agents = in.readInt();
+	    int places = in.readInt();
+	    int edges = in.readInt();
+
+	    byte[] agentKind = new byte[agents];
+	    in.readFully( agentKind );
+	    int[] agentStart = readInts( in, agents + 1 );
+	    int[] agentPlace = readInts( in, edges );
+	    int[] agentOrder = readInts( in, agents );
+	    byte[] placeKind = new byte[places];
+	    in.readFully( placeKind );
+	    for (byte k: placeKind) { // never saved, PlaceType makes them
+		if (k == generic) throw new IOException( f + ": place types" );
+	    }
+	    double[] transmissivity = new double[places];
+	    for (int p = 0; p < places; p++) {
+		transmissivity[p] = in.readDouble();
+	    }
+	    int[] placeStart = readInts( in, places + 1 );
+	    int[] placeAgent = readInts( in, edges );
+
+	    return new ContactGraph(
+		agentStart, agentPlace, agentKind, agentOrder,
+		placeStart, placeAgent, placeKind, transmissivity
+	    );
+	}
+    }
+
+    // read n ints for load()
+    private static int[] readInts( DataInputStream in, int n )
+	throws IOException
+    {
+	int[] a = new int[n];
+	for (int i = 0; i < n; i++) a[i] = in.readInt();
+	return a;
+    }
+}
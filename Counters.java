@@ -0,0 +1,180 @@
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Counts of people in each infection state
+ * Every thread that changes a count does so in a stripe of cells of its
+ * own, so threads never contend for a count, and the stripes are merged
+ * only when the counts are published.  Publishing is done at boundaries
+ * in simulated time, when no thread is counting, and makes an immutable
+ * View that any other thread may read at any time without stopping the
+ * simulation; all the counts in a view are from the same moment.
+ * Threads come and go, as pools of them are made for each simulation and
+ * idle ones are retired, so the stripes of threads that have ended are
+ * folded into one array of counts whenever the counts are published.
+ * @author Thomas McDowell
+ * @version 1/13/2021
+ * Status: New code
+ * @see Person
+ */
+public final class Counters {
+    private Counters(){} // prevent anyone from instantiating this class
+
+    private static final int states = Person.States.values().length;
+
+    // the cells of a stripe are padded on both sides by a cache line
+    // so that counting in one stripe never slows down counting in another
+    private static final int pad = 8;
+
+    // a stripe, and the thread that counts in it
+    private static final class Stripe {
+	final Thread owner = Thread.currentThread();
+	final long[] cells = new long[pad + states + pad];
+    }
+
+    // the stripes of threads that may still count, the stripe of each
+    // thread, and the sum of the stripes of threads that have ended
+    private static final CopyOnWriteArrayList <Stripe> stripes =
+	new CopyOnWriteArrayList <Stripe> ();
+    private static final ThreadLocal <long[]> mine =
+	ThreadLocal.withInitial( ()-> {
+	    Stripe stripe = new Stripe();
+	    stripes.add( stripe );
+	    return stripe.cells;
+	} );
+    private static final long[] ended = new long[states];
+
+    /** An immutable set of counts, all from the same moment
+     */
+    public static final class View {
+	/** the simulated time of the counts */
+	public final double time;
+	private final int[] counts;
+
+	private View( double time, int[] counts ) {
+	    this.time = time;
+	    this.counts = counts;
+	}
+
+	/** @param s a state
+	 *  @return the number of people in state s
+	 */
+	public int get( Person.States s ) {
+	    return counts[s.ordinal()];
+	}
+    }
+
+    /** Make a view of counts from elsewhere
+     *  @param t the simulated time of the counts
+     *  @param counts the number of people in each state, by ordinal
+     *  @return a view of those counts
+     */
+    static View view( double t, int[] counts ) {
+	return new View( t, counts.clone() );
+    }
+
+    // the latest published view, read by any thread
+    private static volatile View latest = new View( 0.0, new int[states] );
+
+    /** Add to the count of people in some state
+     *  @param s the state
+     *  @param n how many to add, negative to subtract
+     */
+    static void add( Person.States s, int n ) {
+	long[] stripe = mine.get();
+	stripe[pad + s.ordinal()] += n;
+    }
+
+    /** @param s a state
+     *  @return the number of people in state s now
+     *  Exact only if no other thread is counting at the time.
+     */
+    static int current( Person.States s ) {
+	long count = ended[s.ordinal()];
+	for (Stripe stripe: stripes) {
+	    count = count + stripe.cells[pad + s.ordinal()];
+	}
+	return (int)count;
+    }
+
+    /** Fold the stripes of threads that have ended into one
+     *  Called only when no other thread is counting; a thread that has
+     *  ended can never count again, so its stripe is never needed again.
+     */
+    private static void fold() {
+	for (Stripe stripe: stripes) {
+	    if (stripe.owner.isAlive()) continue;
+	    for (int i = 0; i < states; i++) {
+		ended[i] = ended[i] + stripe.cells[pad + i];
+	    }
+	    stripes.remove( stripe );
+	}
+    }
+
+    /** @return the number of people in each state now, by ordinal
+     *  Exact only if no other thread is counting at the time.
+     */
+    static int[] totals() {
+	int[] counts = new int[states];
+	for (Person.States s: Person.States.values()) {
+	    counts[s.ordinal()] = current( s );
+	}
+	return counts;
+    }
+
+    /** Merge the stripes into a new view and publish it
+     *  @param t the current simulated time
+     *  @return the new view
+     *  Called only at a boundary in simulated time, when no other thread
+     *  is counting.
+     */
+    static View publish( double t ) {
+	fold();
+	View v = new View( t, totals() );
+	latest = v;
+	return v;
+    }
+
+    /** @return the latest published view
+     *  This may be called from any thread.
+     */
+    public static View latest() {
+	return latest;
+    }
+
+    /** Publish the counts periodically, for readers in other threads
+     *  @param t the time of the first publication
+     *  @param interval the time between publications
+     */
+    static void publishEvery( double t, double interval ) {
+	class Publish extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
+	    Publish() { super( t ); }
+	    public void trigger() {
+		publish( this.time );
+		publishEvery( this.time + interval, interval );
+	    }
+	    public boolean timekeeping() { return true; }
+	}
+	Simulator.schedule( new Publish() );
+    }
+
+    /** Replace all the counts
+     *  @param counts the new number of people in each state, by ordinal
+     *  Called only by Snapshot, when no other thread is counting.
+     */
+    static void set( int[] counts ) {
+	reset();
+	long[] stripe = mine.get();
+	for (int i = 0; i < states; i++) stripe[pad + i] = counts[i];
+    }
+
+    /** Zero all the counts, so a new simulation can start
+     */
+    static void reset() {
+	fold();
+	for (Stripe stripe: stripes) Arrays.fill( stripe.cells, 0 );
+	Arrays.fill( ended, 0 );
+	latest = new View( 0.0, new int[states] );
+    }
+}
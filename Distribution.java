@@ -0,0 +1,171 @@
+import java.lang.Math;
+
+/**
+ * Probability distributions with their parameters worked out just once
+ * @author Thomas McDowell
+ * @version 12/14/2020
+ * Status: New code
+ * @see MyRandom
+ */
+public abstract class Distribution {
+
+    // need a source of random numbers
+    private static final MyRandom rand = MyRandom.stream();
+
+    /** draw from this distribution
+     *  @return the next number drawn from this distribution
+     */
+    public double next() {
+	return next( rand );
+    }
+
+    /** draw from this distribution, with numbers from some other stream
+     *  @param r the stream
+     *  @return the next number drawn from this distribution
+     *  For those who must not change what the usual stream would draw.
+     */
+    public abstract double next( MyRandom r );
+
+    /** draw many numbers from this distribution at once
+     *  @param a the array to fill with numbers drawn from this distribution
+     *  Subclasses should override this with a tighter loop where they can.
+     */
+    public void fill( double[] a ) {
+	for (int i = 0; i < a.length; i++) a[i] = next();
+    }
+
+    /** Log-normal distributions, described by median and scatter
+     *  @see MyRandom#nextLogNormal
+     */
+    public static final class LogNormal extends Distribution {
+	private final double median;
+	private final double sigma; // computed from the scatter, just once
+
+	/** Construct a log-normal distribution
+	 *  @param median the median of the distribution
+	 *  @param scatter the scatter of the distribution
+	 */
+	public LogNormal( double median, double scatter ) {
+	    this.median = median;
+	    this.sigma = Math.log( (scatter + median) / median );
+	}
+
+	public double next( MyRandom r ) {
+	    return Math.exp( sigma * r.nextNormal() ) * median;
+	}
+
+	public void fill( double[] a ) {
+	    for (int i = 0; i < a.length; i++) {
+		a[i] = Math.exp( sigma * rand.nextNormal() ) * median;
+	    }
+	}
+    }
+
+    /** Exponential distributions, described by their mean
+     *  @see MyRandom#nextExponential
+     */
+    public static final class Exponential extends Distribution {
+	private final double mean;
+
+	/** Construct an exponential distribution
+	 *  @param mean the mean of the distribution
+	 */
+	public Exponential( double mean ) {
+	    this.mean = mean;
+	}
+
+	public double next( MyRandom r ) {
+	    // 1 - nextDouble() is never zero, so the log is always finite
+	    return -Math.log( 1.0 - r.nextDouble() ) * mean;
+	}
+
+	public void fill( double[] a ) {
+	    for (int i = 0; i < a.length; i++) {
+		a[i] = -Math.log( 1.0 - rand.nextDouble() ) * mean;
+	    }
+	}
+    }
+
+    /** Bernoulli distributions, where something happens or it doesn't
+     */
+    public static final class Bernoulli extends Distribution {
+	private final double p;
+
+	/** Construct a Bernoulli distribution
+	 *  @param p the probability that the thing happens
+	 */
+	public Bernoulli( double p ) {
+	    this.p = p;
+	}
+
+	/** see if it happens this time
+	 *  @return true with probability p
+	 */
+	public boolean happens() {
+	    return happens( rand );
+	}
+
+	/** see if it happens this time, by some other stream
+	 *  @param r the stream
+	 *  @return true with probability p
+	 */
+	public boolean happens( MyRandom r ) {
+	    return r.nextDouble() < p;
+	}
+
+	/** @return 1.0 with probability p, otherwise 0.0
+	 *  @param r the stream
+	 */
+	public double next( MyRandom r ) {
+	    return happens( r ) ? 1.0 : 0.0;
+	}
+    }
+
+    /** Draw from a distribution in batches, handing out one number at a time
+     *  Use this for distributions drawn from over and over in the model,
+     *  so the tight loop in fill() does the drawing.
+     */
+    public static final class Batched extends Distribution {
+	// package-private so Snapshot can save and restore them
+	private final Distribution source;
+	final double[] batch;
+	int used; // how much of the batch has been handed out
+
+	/** Construct a batched version of a distribution
+	 *  @param source the distribution to draw from
+	 *  @param size the number of numbers drawn in each batch
+	 */
+	public Batched( Distribution source, int size ) {
+	    this.source = source;
+	    this.batch = new double[size];
+	    this.used = size; // the first call to next() fills the batch
+	}
+
+	public double next() {
+	    if (MyRandom.isSplit()) return source.next(); // must not share
+	    if (used == batch.length) {
+		source.fill( batch );
+		used = 0;
+	    }
+	    double n = batch[used];
+	    used = used + 1;
+	    return n;
+	}
+
+	/** Draw from the underlying distribution, bypassing the batch
+	 *  @param r the stream
+	 *  @return the next number drawn from that stream
+	 */
+	public double next( MyRandom r ) {
+	    return source.next( r );
+	}
+
+	/** Throw away what is left of the batch
+	 *  The next number is then drawn afresh, so a simulation seeded
+	 *  after this draws what it would in a program of its own.
+	 */
+	void reset() {
+	    used = batch.length;
+	}
+    }
+}
@@ -7,22 +7,28 @@
  * @see WorkPlace
  */
 public class Employee extends Person {
+    private static final long serialVersionUID = 1L;
     // instance variables
-    private WorkPlace job;  // employees have WorkPlaces
+    transient WorkPlace job;  // employees have WorkPlaces, see job()
 			    // can't be final because set post constructor
-
-    // need a source of random numbers
-    private static final MyRandom rand = MyRandom.stream();
+    private transient Simulator.Event commute = null; // next trip to work
 
     /** The only constructor
      *  @param h the HomePlace of the newly constructed Employee
-     *  Note that employees are created without well-defined workplaces
+     *  Note that employees are created without well-defined workplaces,
+     *  and don't go anywhere until startCommute() is called
      */
     public Employee( HomePlace h ) {
 	super( h ); // construct the base person
 	job = null;
+    }
 
-	// go to work every day at 25 minutes before 8 AM
+    /** Go to work every day at 25 minutes before 8 AM
+     *  Called once, after the workplace is set; Epidemic calls it once
+     *  the whole community is made, so travel times are drawn the same
+     *  way whether the community was built or loaded.
+     */
+    void startCommute() {
 	goToWork( (8*Simulator.hour) - (25*Simulator.minute) );
     }
 
@@ -31,11 +37,37 @@ public class Employee extends Person {
      *  No employee's workplace may be set more than once
      */
     public void setWorkplace( WorkPlace w ) {
-	assert job == null;
-	job = w;
+	assert job() == null;
+	if (AgentStore.open) {
+	    AgentStore.job( this, w );
+	} else {
+	    job = w;
+	}
 	w.addEmployee( this );
     }
 
+    /** @return the workplace of this employee, null if not yet set
+     *  While AgentStore is open, its record holds the workplace; see Person
+     */
+    WorkPlace job() {
+	if (AgentStore.open && (serial >= 0)) return AgentStore.job( this );
+	return job;
+    }
+
+    /** @return the next trip to work, if one is pending
+     */
+    Simulator.Event commute() {
+	return commute;
+    }
+
+    /** Restore the next trip to work
+     *  @param e the pending trip
+     *  Called only by Snapshot
+     */
+    void setCommute( Simulator.Event e ) {
+	commute = e;
+    }
+
     /** Primarily for debugging
      * @return textual name home and employer of this person
      */
@@ -43,35 +75,67 @@ public class Employee extends Person {
 	return super.toString() ;// DEBUG + " " + job.name;
     }
 
+    /** Remove this employee from all directories
+     *  @return the number of directory entries removed
+     *  Called only when compacting away the dead
+     */
+    int forget() {
+	int entries = super.forget();
+	WorkPlace w = job();
+	if (w != null) {
+	    w.removeEmployee( this );
+	    entries = entries + 1;
+	}
+	return entries;
+    }
+
+    /** Cancel the next trip to work
+     *  Called when an employee becomes bedridden or dies
+     */
+    void cancelCommute() {
+	if (commute != null) commute.cancel();
+	commute = null;
+    }
+
     // simulation methods
 
     /** Simulate the daily trip to work
      * @param time of departure
      */
     private void goToWork( double t ) {
-	if (infectionState == States.dead) return; // finish killing the dead!
+	States s = state();
+	if (s == States.dead) return; // finish killing the dead!
 
 	// people only leave home if feeling OK
-	if (infectionState != States.bedridden) {
-	    double travelTime = rand.nextLogNormal(
-		20 * Simulator.minute, // mean travel time
-		3 * Simulator.minute   // scatter in travel time
-	    );
+	if (s != States.bedridden) {
+	    double travelTime = Person.travelT.next();
 
 	    // go to work every day at the same time
             class WorkTravel extends Simulator.Event {
+		private static final long serialVersionUID = 1L;
 	        Employee employee;
 	        WorkTravel( Employee employee ) { 
 		    super( t );
 		    this.employee = employee;
 	        }
+	        public Object group() { // the home it infects on leaving
+		    return employee.place();
+	        }
 	        public void trigger() {
-		    employee.place.depart( employee, time );
-		    employee.travelTo( employee.job, this.time + travelTime );
+		    WorkPlace job = employee.job();
+		    if (!job.closed()) { // stay home if work is closed
+			// not in any place if traveling with a PlaceType batch
+			Place from = employee.place();
+			if (from != null) {
+			    from.depart( employee, time );
+			    employee.setPlace( null ); // until arriving
+			}
+			employee.travelTo( job, this.time + travelTime );
+		    }
 	            goToWork( this.time + Simulator.day );
 	        }
 	    }
-	    Simulator.schedule( new WorkTravel( this ) );
+	    commute = Simulator.schedule( new WorkTravel( this ) );
 	}
     }
 }
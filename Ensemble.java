@@ -0,0 +1,336 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * Ensembles of replicate runs of scenarios, to compare them within noise
+ * Usage: java Ensemble [-antithetic] width maxreps file...
+ * <p>
+ * Each replicate runs every scenario file from the same seed, so the
+ * scenarios share their random numbers as far as they run alike, and
+ * differences between them reflect the scenarios more than the luck of
+ * the draw; each branch of a forked scenario is a scenario of its own.
+ * With -antithetic, each replicate is a pair of runs, the second drawing
+ * the complement of every random number drawn by the first, and the pair
+ * counts as their average.  The scenario files must not give a seed.
+ * <p>
+ * After each replicate, 95% confidence intervals are found for the mean
+ * counts of each state at each daily report, and, given more than one
+ * scenario, for the mean difference of each from the first.  Replicates
+ * stop once the widest of those intervals, the differences if any, is no
+ * more than width people either side of the mean, or after maxreps.  The
+ * means and intervals are then printed, one line per scenario and day.
+ * @author Thomas McDowell
+ * @version 1/27/2021
+ * Status: New code
+ * @see Epidemic
+ * @see Results
+ */
+public class Ensemble {
+    private Ensemble(){} // prevent anyone from instantiating this class
+
+    private static final long seed = 20210127; // seed of the first replicate
+    private static final int minReplicates = 5; // before trusting intervals
+    private static final double z = 1.96;      // for 95% intervals
+
+    private static final Person.States[] states = Person.States.values();
+
+    /** Running mean and variance of one number over replicates
+     *  See B. P. Welford, Note on a method for calculating corrected sums
+     *  of squares and products, 1962.
+     */
+    private static final class Stat {
+	private long n = 0;
+	private double mean = 0.0;
+	private double m2 = 0.0; // sum of squared differences from the mean
+
+	void add( double x ) {
+	    n = n + 1;
+	    double d = x - mean;
+	    mean = mean + d / n;
+	    m2 = m2 + d * (x - mean);
+	}
+
+	/** @return half the width of the confidence interval on the mean
+	 */
+	double halfWidth() {
+	    if (n < 2) return Double.POSITIVE_INFINITY;
+	    return z * Math.sqrt( m2 / (n - 1) / n );
+	}
+
+	public String toString() {
+	    return String.format( Locale.ROOT, "%.1f +- %.1f",
+		mean, halfWidth()
+	    );
+	}
+    }
+
+    /** One scenario, or one branch of a forked scenario
+     */
+    private static final class Arm {
+	final String name;
+	final double[] times; // of the daily reports
+	final Stat[][] level; // by day and state
+	final Stat[][] diff;  // the same, less the first arm
+
+	Arm( String name, double[] times ) {
+	    this.name = name;
+	    this.times = times;
+	    level = new Stat[times.length][states.length];
+	    diff = new Stat[times.length][states.length];
+	    for (int d = 0; d < times.length; d++) {
+		for (int s = 0; s < states.length; s++) {
+		    level[d][s] = new Stat();
+		    diff[d][s] = new Stat();
+		}
+	    }
+	}
+    }
+
+    /** Collects the daily counts of a run from its Results
+     *  Reports before a fork belong to every branch.
+     */
+    private static final class Collector
+	implements Flow.Subscriber <Results.Record>
+    {
+	final ArrayList<Results.Daily> trunk = new ArrayList<>();
+	final ArrayList<ArrayList<Results.Daily>> branches = new ArrayList<>();
+	final CountDownLatch done = new CountDownLatch( 1 );
+	Throwable failure = null;
+
+	public void onSubscribe( Flow.Subscription s ) {
+	    s.request( Long.MAX_VALUE );
+	}
+
+	public void onNext( Results.Record r ) {
+	    if (r instanceof Results.Branch) {
+		branches.add( new ArrayList<Results.Daily>( trunk ) );
+	    } else if (r instanceof Results.Daily) {
+		if (branches.isEmpty()) {
+		    trunk.add( (Results.Daily)r );
+		} else {
+		    branches.get( branches.size() - 1 ).add( (Results.Daily)r );
+		}
+	    }
+	}
+
+	public void onError( Throwable e ) {
+	    failure = e;
+	    done.countDown();
+	}
+
+	public void onComplete() {
+	    done.countDown();
+	}
+
+	/** @return the daily counts of each branch, or of the whole run
+	 */
+	ArrayList<ArrayList<Results.Daily>> arms() {
+	    if (!branches.isEmpty()) return branches;
+	    ArrayList<ArrayList<Results.Daily>> a = new ArrayList<>();
+	    a.add( trunk );
+	    return a;
+	}
+    }
+
+    /** Run a scenario once
+     *  @param text the scenario
+     *  @param s the seed
+     *  @param anti true to draw the complement of every random number
+     *  @return the daily counts of each arm of the scenario
+     *  @throws Error.Fatal if the run fails
+     */
+    private static ArrayList<ArrayList<Results.Daily>> run(
+	String text, long s, boolean anti
+    ) {
+	Collector c = new Collector();
+	Results.open( 1024 ).subscribe( c );
+
+	// keep what the run says, to show only if it fails
+	ByteArrayOutputStream said = new ByteArrayOutputStream();
+	MyRandom.antithetic( anti );
+	try {
+	    Epidemic.runJob( text + "\nseed\t" + s + ";\n",
+		new PrintStream( said, true, StandardCharsets.UTF_8 )
+	    );
+	    c.done.await();
+	} catch ( Error.Fatal e ) {
+	    System.err.print( said.toString( StandardCharsets.UTF_8 ) );
+	    throw e;
+	} catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	    Error.fatal( "interrupted" );
+	} finally {
+	    MyRandom.antithetic( false );
+	    Error.err = System.err;
+	}
+	if (c.failure != null) {
+	    Error.fatal( "results failed: " + c.failure.getMessage() );
+	}
+	return c.arms();
+    }
+
+    /** Run the ensemble
+     *  @param files the scenario files
+     *  @param width the widest confidence interval wanted
+     *  @param maxReps the most replicates to run
+     *  @param anti true to run antithetic pairs
+     *  @return the arms, with their statistics
+     *  @throws IOException if a scenario can't be read
+     */
+    private static ArrayList<Arm> ensemble(
+	String[] files, double width, int maxReps, boolean anti
+    ) throws IOException {
+	String[] texts = new String[files.length];
+	for (int f = 0; f < files.length; f++) {
+	    texts[f] = new String(
+		Files.readAllBytes( Paths.get( files[f] ) ),
+		StandardCharsets.UTF_8
+	    );
+	}
+
+	ArrayList<Arm> arms = null;
+	for (int r = 0; r < maxReps; r++) {
+	    // this replicate's counts, averaged over any antithetic pair,
+	    // for each arm, day and state
+	    ArrayList<double[][]> counts = new ArrayList<double[][]>();
+	    ArrayList<String> names = new ArrayList<String>();
+	    ArrayList<double[]> times = new ArrayList<double[]>();
+	    for (int f = 0; f < files.length; f++) {
+		ArrayList<ArrayList<Results.Daily>> plain =
+		    run( texts[f], seed + r, false );
+		ArrayList<ArrayList<Results.Daily>> other =
+		    anti ? run( texts[f], seed + r, true ) : plain;
+		for (int b = 0; b < plain.size(); b++) {
+		    ArrayList<Results.Daily> p = plain.get( b );
+		    ArrayList<Results.Daily> o = other.get( b );
+		    int days = Math.min( p.size(), o.size() );
+		    double[][] c = new double[days][states.length];
+		    double[] t = new double[days];
+		    for (int d = 0; d < days; d++) {
+			t[d] = p.get( d ).time;
+			for (Person.States s: states) {
+			    c[d][s.ordinal()] = 0.5 * (
+				p.get( d ).counts.get( s )
+				+ o.get( d ).counts.get( s )
+			    );
+			}
+		    }
+		    counts.add( c );
+		    names.add( files[f] + ((plain.size() > 1) ? "#" + b : "") );
+		    times.add( t );
+		}
+	    }
+
+	    if (arms == null) {
+		arms = new ArrayList<Arm>();
+		for (int a = 0; a < counts.size(); a++) {
+		    arms.add( new Arm( names.get( a ), times.get( a ) ) );
+		}
+	    }
+	    boolean same = (arms.size() == counts.size());
+	    for (int a = 0; same && (a < arms.size()); a++) {
+		same = (arms.get( a ).times.length == counts.get( a ).length);
+	    }
+	    if (!same) Error.fatal( "replicate "+r+": not like the first" );
+
+	    double widest = 0.0;
+	    for (int a = 0; a < arms.size(); a++) {
+		Arm arm = arms.get( a );
+		double[][] c = counts.get( a );
+		double[][] base = counts.get( 0 );
+		for (int d = 0; d < arm.times.length; d++) {
+		    for (int s = 0; s < states.length; s++) {
+			double x = c[d][s];
+			arm.level[d][s].add( x );
+			if (a > 0) {
+			    arm.diff[d][s].add( x - base[d][s] );
+			    widest = Math.max( widest,
+				arm.diff[d][s].halfWidth()
+			    );
+			} else if (arms.size() == 1) {
+			    widest = Math.max( widest,
+				arm.level[d][s].halfWidth()
+			    );
+			}
+		    }
+		}
+	    }
+	    Error.note( "replicate " + (r + 1) + ": widest interval +- "
+		+ String.format( Locale.ROOT, "%.1f", widest )
+	    );
+	    if ((r + 1 >= minReplicates) && (widest <= width)) break;
+	}
+	return arms;
+    }
+
+    /** Print the means and intervals of an ensemble
+     *  @param arms the arms of the ensemble
+     */
+    private static void print( ArrayList<Arm> arms ) {
+	for (int a = 0; a < arms.size(); a++) {
+	    Arm arm = arms.get( a );
+	    for (int d = 0; d < arm.times.length; d++) {
+		print( arm.name, arm.times[d], arm.level[d] );
+	    }
+	    if (a == 0) continue;
+	    for (int d = 0; d < arm.times.length; d++) {
+		print( arm.name + " - " + arms.get( 0 ).name,
+		    arm.times[d], arm.diff[d]
+		);
+	    }
+	}
+    }
+
+    /** Print one line of means and intervals
+     *  @param name what they are of
+     *  @param t the time of the daily report
+     *  @param stats the statistics for each state
+     */
+    private static void print( String name, double t, Stat[] stats ) {
+	StringBuilder s = new StringBuilder( name + " at " + t );
+	String[] abbreviation = { "un", "lat", "inf", "bed", "rec", "dead" };
+	for (Person.States state: states) {
+	    s.append( ", " + abbreviation[state.ordinal()] + " = "
+		+ stats[state.ordinal()]
+	    );
+	}
+	System.out.println( s );
+    }
+
+    /** The main program
+     *  @param args as in the usage
+     */
+    public static void main( String[] args ) {
+	try {
+	    boolean anti = (args.length > 0) && args[0].equals( "-antithetic" );
+	    int first = anti ? 1 : 0;
+	    if (args.length < first + 3) Error.fatal(
+		"Usage: java Ensemble [-antithetic] width maxreps file..."
+	    );
+	    double width = Double.parseDouble( args[first] );
+	    int maxReps = Integer.parseInt( args[first + 1] );
+	    if (width <= 0) Error.fatal( "width "+width+": not positive" );
+	    if (maxReps < 1) Error.fatal( "maxreps "+maxReps+": too few" );
+	    String[] files = new String[args.length - first - 2];
+	    System.arraycopy( args, first + 2, files, 0, files.length );
+	    print( ensemble( files, width, maxReps, anti ) );
+	} catch ( NumberFormatException e ) {
+	    Error.warn( "Not a number: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( IOException e ) {
+	    Error.warn( "Ensemble failed: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+	System.exit( 0 ); // don't wait for helper threads
+    }
+}
@@ -1,7 +1,11 @@
 import java.lang.Math;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
 
 /**
  * Main class for the Epidemic simulator, builds model and simulates it
@@ -25,6 +29,31 @@ public class Epidemic {
     static int infected = -1;    /* the target number of infected people */
     static double employed = -1; /* the likelihood that someone is employed */
 
+    static String loadGraph = null; /* file to read the community from */
+    static String saveGraph = null; /* file to write the community to */
+    static double compact = -1;  /* days between compactions of the dead */
+    static int metrics = -1;     /* port for live metrics, if any */
+    static double fork = -1;     /* time to fork the simulation, if any */
+    static ArrayList<double[]> branches = /* work, home scale per branch */
+	new ArrayList<double[]> ();
+    static String lineage = null; /* directory to record infections in */
+    static String store = null;  /* file to keep the state of all in */
+    static boolean households = false; /* count those who stay at home */
+    static boolean seeded = false; /* true if the seed below was given */
+    static long seed = 0;        /* seed for all random numbers */
+    private static final long started = /* mixed in once the community */
+	0x5851F42D4C957F2DL;     /* is made, to draw anew from there */
+    static double end = -1;      /* the earliest end time given */
+    static String cache = null;  /* directory of cached results, if any */
+    static double cacheBudget = -1; /* megabytes the cache may take */
+    static int threads = -1;     /* threads to run batches of events on */
+    static int sketches = -1;    /* places infecting most to sketch */
+    static double trace = -1;    /* days back that contacts are traced */
+    static double[] scale = null; /* work, home transmissivity scale */
+    static ArrayList<double[]> variants = /* work, home scale per variant */
+	new ArrayList<double[]> ();
+    static String reorder = null; /* how to reorder people and places */
+
     /** Read and check the simulation parameters
      *  @param sc the scanner to read the community description from
      *  Called only from the main method.
@@ -109,7 +138,7 @@ public class Epidemic {
 		    );
 		    infected = 0;
 		}
-		if (infected > pop) { /* sanity check on value given */
+		if ((pop >= 0) && (infected > pop)) { /* sanity check */
 		    Error.warn(
 			"infected "+infected+": greater than population?"
 		    );
@@ -137,6 +166,322 @@ public class Epidemic {
 		    employed = 1.0;
 		}
 
+	    } else if ("loadgraph".equals( command )) {
+		if (loadGraph != null) Error.warn( "loadgraph already set" );
+		loadGraph = sc.getNext( "[^;\\s]+", "",
+		    ()-> "loadgraph with no file name"
+		);
+		sc.getNext( ";", "",
+		    ()-> "loadgraph "+loadGraph+": missed semicolon"
+		);
+
+	    } else if ("savegraph".equals( command )) {
+		if (saveGraph != null) Error.warn( "savegraph already set" );
+		saveGraph = sc.getNext( "[^;\\s]+", "",
+		    ()-> "savegraph with no file name"
+		);
+		sc.getNext( ";", "",
+		    ()-> "savegraph "+saveGraph+": missed semicolon"
+		);
+
+	    } else if ("seed".equals( command )) {
+		if (seeded) Error.warn( "seed already set" );
+		String s = sc.getNext( "-?[0-9]+", "0",
+		    ()-> "seed with no argument"
+		);
+		sc.getNext( ";", "", ()-> "seed "+s+": missed semicolon" );
+		try {
+		    seed = Long.parseLong( s );
+		    seeded = true;
+		    // set now, since nothing random is done while reading
+		    MyRandom.stream().setSeed( seed );
+		} catch ( NumberFormatException e ) {
+		    Error.warn( "seed "+s+": too big?" );
+		}
+
+	    } else if ("lineage".equals( command )) {
+		if (lineage != null) Error.warn( "lineage already set" );
+		lineage = sc.getNext( "[^;\\s]+", "",
+		    ()-> "lineage with no directory name"
+		);
+		sc.getNext( ";", "",
+		    ()-> "lineage "+lineage+": missed semicolon"
+		);
+
+	    } else if ("store".equals( command )) {
+		if (store != null) Error.warn( "store already set" );
+		store = sc.getNext( "[^;\\s]+", "",
+		    ()-> "store with no file name"
+		);
+		sc.getNext( ";", "",
+		    ()-> "store "+store+": missed semicolon"
+		);
+
+	    } else if ("households".equals( command )) {
+		String how = sc.getNext( "[a-z]+", "",
+		    ()-> "households with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "households "+how+": missed semicolon"
+		);
+		if ("counted".equals( how )) {
+		    households = true;
+		} else if (!"people".equals( how )) {
+		    Error.warn( "households "+how+": not counted or people?" );
+		}
+
+	    } else if ("sketches".equals( command )) {
+		if (sketches >= 0) Error.warn( "sketches already set" );
+		sketches = sc.getNextInt( 10,
+		    ()-> "sketches with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "sketches "+sketches+": missed semicolon"
+		);
+		if (sketches < 0) { /* sanity check on value given */
+		    Error.warn( "sketches "+sketches+": negative?" );
+		    sketches = -1;
+		}
+
+	    } else if ("trace".equals( command )) {
+		if (trace > 0) Error.warn( "trace already set" );
+		trace = sc.getNextDouble( 14,
+		    ()-> "trace with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "trace "+trace+": missed semicolon"
+		);
+		if (trace <= 0) { /* sanity check on value given */
+		    Error.warn( "trace "+trace+": non positive days?" );
+		    trace = -1;
+		}
+
+	    } else if ("threads".equals( command )) {
+		if (threads > 0) Error.warn( "threads already set" );
+		threads = sc.getNextInt( 1,
+		    ()-> "threads with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "threads "+threads+": missed semicolon"
+		);
+		if (threads < 1) { /* sanity check on value given */
+		    Error.warn( "threads "+threads+": non positive?" );
+		    threads = -1;
+		}
+
+	    } else if ("reorder".equals( command )) {
+		if (reorder != null) Error.warn( "reorder already set" );
+		reorder = sc.getNext( "[a-z]+", "",
+		    ()-> "reorder with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "reorder "+reorder+": missed semicolon"
+		);
+		if (!"rcm".equals( reorder )) {
+		    Error.warn( "reorder "+reorder+": not rcm?" );
+		    reorder = null;
+		}
+
+	    } else if ("compact".equals( command )) {
+		if (compact > 0) Error.warn( "compact interval already set" );
+		compact = sc.getNextDouble( 7,
+		    ()-> "compact with no argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "compact "+compact+": missed semicolon"
+		);
+		if (compact <= 0) { /* sanity check on value given */
+		    Error.warn(
+			"compact "+compact+": non positive interval?"
+		    );
+		    compact = -1;
+		}
+
+	    } else if ("metrics".equals( command )) {
+		if (metrics > 0) Error.warn( "metrics port already set" );
+		metrics = sc.getNextInt( 9090,
+		    ()-> "metrics with no port number"
+		);
+		sc.getNext( ";", "",
+		    ()-> "metrics "+metrics+": missed semicolon"
+		);
+		if ((metrics < 1) || (metrics > 65535)) { /* sanity check */
+		    Error.warn( "metrics "+metrics+": not a port number?" );
+		    metrics = -1;
+		}
+
+	    } else if ("cache".equals( command )) {
+		if (cache != null) Error.warn( "cache already set" );
+		cache = sc.getNext( "[^,;\\s]+", "",
+		    ()-> "cache with no directory name"
+		);
+		sc.getNext( ",", "", ()-> "cache "+cache+": missed comma" );
+		cacheBudget = sc.getNextDouble( 100,
+		    ()-> "cache "+cache+", missing megabytes"
+		);
+		sc.getNext( ";", "",
+		    ()-> "cache "+cache+", "+cacheBudget+": missed semicolon"
+		);
+		if (cacheBudget <= 0) { /* sanity check */
+		    Error.warn( "cache "+cache+", "+cacheBudget+": no room?" );
+		}
+
+	    } else if ("fork".equals( command )) {
+		if (fork > 0) Error.warn( "fork time already set" );
+		fork = sc.getNextDouble( 1, ()-> "fork with no argument" );
+		sc.getNext( ";", "", ()-> "fork "+fork+": missed semicolon" );
+		if (fork <= 0) { /* sanity check on value given */
+		    Error.warn( "fork "+fork+": non positive time?" );
+		    fork = -1;
+		}
+
+	    } else if ("branch".equals( command )) {
+		double work = sc.getNextDouble( 1,
+		    ()-> "branch with no argument"
+		);
+		sc.getNext( ",", "", ()-> "branch "+work+": missed comma" );
+		double home = sc.getNextDouble( 1,
+		    ()-> "branch "+work+", missing argument "
+		);
+		sc.getNext( ";", "",
+		    ()-> "branch "+work+", "+home+": missed semicolon"
+		);
+		if ((work < 0) || (home < 0)) { /* sanity check on values */
+		    Error.warn( "branch "+work+", "+home+": negative scale?" );
+		} else {
+		    branches.add( new double[] { work, home } );
+		}
+
+	    } else if ("transmissivity".equals( command )) {
+		if (scale != null) Error.warn( "transmissivity already set" );
+		double work = sc.getNextDouble( 1,
+		    ()-> "transmissivity with no argument"
+		);
+		sc.getNext( ",", "",
+		    ()-> "transmissivity "+work+": missed comma"
+		);
+		double home = sc.getNextDouble( 1,
+		    ()-> "transmissivity "+work+", missing argument "
+		);
+		sc.getNext( ";", "",
+		    ()-> "transmissivity "+work+", "+home+": missed semicolon"
+		);
+		if ((work < 0) || (home < 0)) { /* sanity check on values */
+		    Error.warn(
+			"transmissivity "+work+", "+home+": negative scale?"
+		    );
+		} else {
+		    scale = new double[] { work, home };
+		}
+
+	    } else if ("variant".equals( command )) {
+		double work = sc.getNextDouble( 1,
+		    ()-> "variant with no argument"
+		);
+		sc.getNext( ",", "", ()-> "variant "+work+": missed comma" );
+		double home = sc.getNextDouble( 1,
+		    ()-> "variant "+work+", missing argument "
+		);
+		sc.getNext( ";", "",
+		    ()-> "variant "+work+", "+home+": missed semicolon"
+		);
+		if ((work < 0) || (home < 0)) { /* sanity check on values */
+		    Error.warn( "variant "+work+", "+home+": negative scale?" );
+		} else {
+		    variants.add( new double[] { work, home } );
+		}
+
+	    } else if ("placetype".equals( command )) {
+		String name = sc.getNext( "[^,;\\s]+", "",
+		    ()-> "placetype with no name"
+		);
+		// size median and scatter, transmissivity median and scatter,
+		// opening and closing hours, share of eligible people
+		double[] v = new double[7];
+		for (int i = 0; i < v.length; i++) {
+		    final int n = i + 1;
+		    sc.getNext( ",", "",
+			()-> "placetype "+name+": missed comma"
+		    );
+		    v[i] = sc.getNextDouble( -1,
+			()-> "placetype "+name+": missing argument "+n
+		    );
+		}
+		sc.getNext( ",", "", ()-> "placetype "+name+": missed comma" );
+		String rule = sc.getNext( "[a-z]+", "",
+		    ()-> "placetype "+name+": missing who belongs"
+		);
+		sc.getNext( ";", "",
+		    ()-> "placetype "+name+": missed semicolon"
+		);
+		if (v[0] < 1) { /* sanity checks on values given */
+		    Error.warn( "placetype "+name+": median size < 1?" );
+		} else if ((v[1] < 0) || (v[2] < 0) || (v[3] < 0)) {
+		    Error.warn( "placetype "+name+": negative argument?" );
+		} else if ((v[4] < 0) || (v[4] >= v[5]) || (v[5] > 24)) {
+		    Error.warn( "placetype "+name+": bad hours?" );
+		} else if ((v[6] < 0) || (v[6] > 1)) {
+		    Error.warn( "placetype "+name+": share not in 0 to 1?" );
+		} else if (!rule.matches( "anyone|employed|unemployed" )) {
+		    Error.warn( "placetype "+name+": "+rule+" can't belong?" );
+		} else {
+		    new PlaceType( name, v[0], v[1], v[2], v[3], v[4], v[5],
+			v[6], PlaceType.Rule.valueOf( rule )
+		    );
+		}
+
+	    } else if ("closeworkplaces".equals( command )) {
+		int size = sc.getNextInt( 1,
+		    ()-> "closeworkplaces with no argument"
+		);
+		sc.getNext( ",", "",
+		    ()-> "closeworkplaces "+size+": missed comma"
+		);
+		int on = sc.getNextInt( 1,
+		    ()-> "closeworkplaces "+size+", missing argument"
+		);
+		sc.getNext( ",", "",
+		    ()-> "closeworkplaces "+size+", "+on+": missed comma"
+		);
+		int off = sc.getNextInt( 1,
+		    ()-> "closeworkplaces "+size+", "+on+", missing argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "closeworkplaces "+size+", "+on+", "+off
+			+ ": missed semicolon"
+		);
+		if ((size < 0) || (off < 0) || (off > on)) { /* sanity check */
+		    Error.warn(
+			"closeworkplaces "+size+", "+on+", "+off
+			+ ": need 0 <= size and 0 <= reopen <= close"
+		    );
+		} else {
+		    new WorkplaceClosure( size, on, off );
+		}
+
+	    } else if ("quarantineworkplaces".equals( command )) {
+		int on = sc.getNextInt( 1,
+		    ()-> "quarantineworkplaces with no argument"
+		);
+		sc.getNext( ",", "",
+		    ()-> "quarantineworkplaces "+on+": missed comma"
+		);
+		double days = sc.getNextDouble( 1,
+		    ()-> "quarantineworkplaces "+on+", missing argument"
+		);
+		sc.getNext( ";", "",
+		    ()-> "quarantineworkplaces "+on+", "+days
+			+ ": missed semicolon"
+		);
+		if ((on < 1) || !(days > 0)) { /* sanity check */
+		    Error.warn(
+			"quarantineworkplaces "+on+", "+days
+			+ ": need 1 <= infectious and 0 < days"
+		    );
+		} else {
+		    new WorkplaceQuarantine( on, days );
+		}
+
 	    } else if ("end".equals( command )) {
 		Double endTime = sc.getNextDouble(
 		    1, ()-> "end: floating point end time expected"
@@ -149,9 +494,15 @@ public class Epidemic {
 		sc.getNext( ";", "",
 		    ()-> "end "+endTime+": missed semicolon"
 		);
+		if ((end < 0) || (endTime < end)) end = endTime;
 		class EndTime extends Simulator.Event {
+		    private static final long serialVersionUID = 1L;
 		    EndTime() { super( endTime ); }
-		    public void trigger() { System.exit( 0 ); }
+		    public void trigger() {
+			Error.note( Simulator.statistics() );
+			Simulator.stop();
+		    }
+		    public boolean timekeeping() { return true; }
 		}
 		Simulator.schedule( new EndTime() );
 		// BUG -- A better end mechanism would output a results report
@@ -163,12 +514,37 @@ public class Epidemic {
 	// BUG -- if there were errors, it might be best to quit now
 
 	// check for complete initialization
+	if (infected < 0) Error.warn( "infected number not given" );
+	if ((fork > 0) && branches.isEmpty()) Error.warn( "fork, no branch" );
+	if ((fork < 0) && !branches.isEmpty()) Error.warn( "branch, no fork" );
+	if ((fork > 0) && (lineage != null)) Error.warn( "fork with lineage" );
+	if ((fork > 0) && !variants.isEmpty()) Error.warn( "fork, variant" );
+	if (households) { // those counted in homes can't be seen one by one
+	    if (lineage != null) Error.warn( "households with lineage" );
+	    if (store != null) Error.warn( "households with store" );
+	    if (saveGraph != null) Error.warn( "households with savegraph" );
+	    if (trace > 0) Error.warn( "households with trace" );
+	    if (!variants.isEmpty()) Error.warn( "households with variant" );
+	    if (!PlaceType.onlyEmployed()) {
+		Error.warn( "households with placetypes not for employed" );
+	    }
+	}
+	if (threads > 0) { // events in parallel mustn't share these
+	    if (lineage != null) Error.warn( "threads with lineage" );
+	    if (store != null) Error.warn( "threads with store" );
+	    if (Trigger.all().length > 0) {
+		Error.warn( "threads with closeworkplaces or quarantine" );
+	    }
+	    if (sketches >= 0) Error.warn( "threads with sketches" );
+	    if (trace > 0) Error.warn( "threads with trace" );
+	    if (!variants.isEmpty()) Error.warn( "threads with variant" );
+	}
+	if (loadGraph != null) return; // the graph gives the rest
 	if (pop < 0)      Error.warn( "population not initialized" );
 	if (houseMed < 0) Error.warn( "median household size not set" );
 	if (houseSc < 0)  Error.warn( "household scatter not set" );
 	if (workMed < 0)  Error.warn( "median workplace size not set" );
 	if (workSc < 0)   Error.warn( "workplace scatter not set" );
-	if (infected < 0) Error.warn( "infected number not given" );
 	if (employed < 0) Error.warn( "employment rate not given" );
     }
 
@@ -184,32 +560,30 @@ public class Epidemic {
 
 	// need a source of random numbers
 	final MyRandom rand = MyRandom.stream();
+	final Distribution houseSize = new Distribution.LogNormal(
+	    houseMed, houseSc
+	);
+	final Distribution workSize = new Distribution.LogNormal(
+	    workMed, workSc
+	);
 
 	// create the population
 	for (int i = 0; i < pop; i++) {
 	    Person p = null;
 	    if (currentHomeCapacity < 1) { // must create a new home
 		currentHome = new HomePlace();
-		currentHomeCapacity = (int)Math.ceil(
-		    rand.nextLogNormal( houseMed, houseSc )
-		);
+		currentHomeCapacity = (int)Math.ceil( houseSize.next() );
 	    }
 	    currentHomeCapacity = currentHomeCapacity - 1;
 
 	    // create the right kind of person
 	    if (rand.nextDouble() <= employed) { // this is as an employee
 		p = new Employee( currentHome );
+	    } else if (households) { // counted by the home, never leaves
+		currentHome.addStayer();
 	    } else { // this is an unemployed generic person
 		p = new Person( currentHome );
 	    }
-
-	    // decide who to infect
-	    //   note: pop - i = number of people not yet considered to infect
-	    //   and   infected = number we need to infect, always <= (pop - i)
-	    if (rand.nextInt( pop - i ) < infected) {
-		p.infect( 0 ); // infected from the beginning of time
-		infected = infected - 1;
-	    }
 	}
 
 	Person.shuffle(); // shuffle the population to break correlations
@@ -221,17 +595,159 @@ public class Epidemic {
 		Employee e = (Employee)p;
 		if (currentWorkCapacity < 1) { // must create new workplace
 		    currentWork = new WorkPlace();
-		    currentWorkCapacity = (int)Math.ceil(
-			rand.nextLogNormal( workMed, workSc )
-		    );
+		    currentWorkCapacity = (int)Math.ceil( workSize.next() );
 		}
 		currentWorkCapacity = currentWorkCapacity - 1;
 		e.setWorkplace( currentWork );
 	    }
 	}
+    }
+
+    /** Rebuild a community saved by an earlier run
+     *  @param f the file holding the contact graph of the community
+     *  Called only from the main method, instead of buildCommunity.
+     *  People are made in order of their numbers, as buildCommunity made
+     *  them, then put in the order of the population saved, and given
+     *  their workplaces in that order, as buildCommunity gave them.
+     */
+    private static void loadCommunity( File f ) {
+	ContactGraph g = null;
+	try {
+	    g = ContactGraph.load( f );
+	} catch ( IOException e ) {
+	    Error.fatal( "Can't load graph: " + e.getMessage() );
+	}
+
+	// recreate the places in order, so their ids match the graph
+	Place[] places = new Place[g.places()];
+	for (int p = 0; p < g.places(); p++) {
+	    if (g.placeKind[p] == ContactGraph.work) {
+		places[p] = new WorkPlace( g.transmissivity[p] );
+	    } else {
+		places[p] = new HomePlace( g.transmissivity[p] );
+	    }
+	}
+
+	pop = g.agents();
+
+	// recreate the people in order, so their ids match the graph
+	Person[] made = new Person[pop]; // by agent, null for stayers
+	for (int a = 0; a < pop; a++) {
+	    HomePlace h = (HomePlace)places[g.home( a )];
+	    if (g.agentKind[a] == ContactGraph.employee) {
+		made[a] = new Employee( h );
+	    } else if (households) {
+		h.addStayer();
+	    } else {
+		made[a] = new Person( h );
+	    }
+	}
+
+	// then in the order of the population, and employed in that order
+	Person[] order = new Person[pop];
+	for (int i = 0; i < pop; i++) {
+	    int a = g.agentOrder[i];
+	    order[i] = made[a];
+	    if (made[a] instanceof Employee) {
+		((Employee)made[a]).setWorkplace(
+		    (WorkPlace)places[g.workplace( a )]
+		);
+	    }
+	}
+	Person.arrange( order );
+    }
+
+    /** Set the community going, once it is built or loaded
+     *  Called only by prepare(), after any graph is saved.  The stream is
+     *  seeded again first, if seeded at all, so from here on a community
+     *  loaded from a saved graph draws just what the one built and saved
+     *  drew, and the runs report the same.
+     */
+    private static void startCommunity() {
+	// need a source of random numbers, apart from those used to build
+	final MyRandom rand = MyRandom.stream();
+	if (seeded) rand.setSeed( seed ^ started );
+
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    if (p instanceof Employee) ((Employee)p).startCommute();
+	}
+
+	if (infected > pop) { /* sanity check on value given */
+	    Error.warn( "infected "+infected+": greater than population?" );
+	    infected = pop;
+	}
+
+	// decide who to infect, people in order, then those staying home
+	//   note: left = number of people not yet considered to infect
+	//   and   infected = number we need to infect, always <= left
+	int left = pop;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    if (rand.nextInt( left ) < infected) {
+		p.infect( 0 ); // infected from the beginning of time
+		if (Lineage.recording) Lineage.seed( p );
+		infected = infected - 1;
+	    }
+	    left = left - 1;
+	}
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    if (!(p instanceof HomePlace)) continue;
+	    HomePlace h = (HomePlace)p;
+	    int stayers = h.stayers( Person.States.uninfected );
+	    for (int s = 0; s < stayers; s++) {
+		if (rand.nextInt( left ) < infected) {
+		    Person.infectStayer( h, 0 );
+		    infected = infected - 1;
+		}
+		left = left - 1;
+	    }
+	}
 	Person.report( 0.0 );
     }
 
+    /** Save the community so later runs can reuse it
+     *  @param f the file to hold the contact graph of the community
+     *  Called only from the main method, after the community is built.
+     */
+    private static void saveCommunity( File f ) {
+	try {
+	    ContactGraph.build().save( f );
+	} catch ( IOException e ) {
+	    Error.warn( "Can't save graph: " + e.getMessage() );
+	}
+    }
+
+    /** Read a community description, for Shard and Benchmark
+     *  @param sc the scanner to read the community description from
+     *  @throws Error.Fatal if there were any errors
+     */
+    static void readScenario( MyScanner sc ) {
+	readCommunity( sc );
+	Error.quitIfAny();
+    }
+
+    /** Build or load the community, for Shard
+     *  @return the contact graph of the whole community
+     *  The graph is saved if the community description says so.
+     */
+    static ContactGraph communityGraph() {
+	ContactGraph g = null;
+	if (loadGraph != null) {
+	    try {
+		g = ContactGraph.load( new File( loadGraph ) );
+	    } catch ( IOException e ) {
+		Error.fatal( "Can't load graph: " + e.getMessage() );
+	    }
+	} else {
+	    buildCommunity();
+	    g = ContactGraph.build();
+	}
+	if (saveGraph != null) saveCommunity( new File( saveGraph ) );
+	return g;
+    }
+
     /** Output the community
       * Called only from the main method.
       * This code exists only for debugging.
@@ -249,22 +765,216 @@ public class Epidemic {
 	}
     }
 
+    /** Read, build and simulate a community
+     *  @param sc the scanner to read the community description from
+     *  @throws Error.Fatal if the simulation can't be carried out
+     */
+    private static void simulate( MyScanner sc ) {
+	try {
+	    readCommunity( sc );
+	    Error.quitIfAny();
+	    if ((cache == null) || !ResultCache.lookup( new File( cache ) )) {
+		prepare();
+		run();
+		if (cache != null) {
+		    ResultCache.store( new File( cache ), cacheBudget );
+		}
+	    }
+	} catch ( Error.Fatal e ) {
+	    Results.fail( e );
+	    throw e;
+	}
+	Results.close();
+    }
+
+    /** Build or load the community and set up all the description asks for
+     *  Called after the description is read, before run().
+     */
+    static void prepare() {
+	if (metrics > 0) {
+	    MetricsServer.start( metrics );
+	    Counters.publishEvery( 0.0, Simulator.hour ); // keep them fresh
+	}
+	if (lineage != null) try {
+	    Lineage.open( new File( lineage ) );
+	} catch ( IOException e ) {
+	    Error.fatal( "lineage "+lineage+": " + e.getMessage() );
+	}
+	if (!variants.isEmpty()) Lockstep.record(); // courses for the variants
+	if (loadGraph != null) {
+	    loadCommunity( new File( loadGraph ) );
+	} else {
+	    buildCommunity();  // build what was read above
+	}
+	if (saveGraph != null) saveCommunity( new File( saveGraph ) );
+	startCommunity();
+	PlaceType.buildAll(); // these are never part of the saved graph
+	if (scale != null) { // as a branch would, but from the start
+	    for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+		Place p = i.next();
+		double s = (p instanceof WorkPlace) ? scale[0] : scale[1];
+		p.setTransmissivity( p.transmissivity() * s, 0.0 );
+	    }
+	}
+	if (reorder != null) Locality.reorder(); // before any index by id
+	if (compact > 0) Person.compactEvery( compact, compact );
+	if (store != null) try {
+	    AgentStore.open( new File( store ) );
+	} catch ( IOException e ) {
+	    Error.fatal( "store "+store+": " + e.getMessage() );
+	}
+	if (sketches >= 0) Sketches.start( sketches );
+	if (trace > 0) Colocation.start( trace );
+	if (!variants.isEmpty()) { // with a seed of their own, if seeded
+	    Lockstep.start( variants, seeded ? Long.valueOf( ~seed ) : null );
+	}
+	// writeCommunity();  // DEBUG -- this is just for debugging
+    }
+
+    /** Run the simulation that prepare() set up, to the end
+     */
+    static void run() {
+	Person.checkQuiet(); // in case no one was infected
+	if (threads > 0) {
+	    if (Results.streaming) { // records must come in order
+		Error.note( "threads: not while streaming results" );
+	    } else {
+		Simulator.parallel( threads );
+	    }
+	}
+	if (fork > 0) {
+	    simulateBranches();
+	} else {
+	    Simulator.run();
+	}
+	Simulator.parallel( 0 );
+	Lineage.close();
+	AgentStore.close();
+    }
+
+    /** Simulate up to the fork time, then each branch from there on
+     *  Called only from run().
+     *  The model at the fork time is snapshotted, and each branch after
+     *  the first starts from a private copy of that snapshot, so the days
+     *  before the fork are simulated only once.
+     */
+    private static void simulateBranches() {
+	Simulator.runUntil( fork );
+	byte[] snapshot = Snapshot.take( fork );
+	Error.note( "at "+fork+", forked with a snapshot of "
+	    + snapshot.length + " bytes"
+	);
+
+	for (int b = 0; b < branches.size(); b++) {
+	    double work = branches.get( b )[0];
+	    double home = branches.get( b )[1];
+	    if (b > 0) {
+		Snapshot.restore( snapshot ); // the first needs no copy
+	    }
+
+	    // scale transmissivities as this branch says; changing one
+	    // settles who is infected there up to now, drawing random
+	    // numbers, so places left as they are must not be touched, or a
+	    // branch that changes nothing would not follow the unforked run
+	    for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+		Place p = i.next();
+		double scale = (p instanceof WorkPlace) ? work : home;
+		if (scale == 1.0) continue;
+		p.setTransmissivity( p.transmissivity() * scale, fork );
+	    }
+
+	    String line = "branch "+b+": work "+work+", home "+home;
+	    Person.reports.println( line );
+	    ResultCache.line( line );
+	    if (Results.streaming) Results.branch( fork, b, work, home );
+	    Simulator.run();
+	}
+    }
+
+    /** Forget everything about any previous simulation
+     */
+    private static void reset() {
+	pop = -1;
+	houseMed = -1;
+	houseSc = -1;
+	workMed = -1;
+	workSc = -1;
+	infected = -1;
+	employed = -1;
+	loadGraph = null;
+	saveGraph = null;
+	compact = -1;
+	metrics = -1;
+	fork = -1;
+	branches.clear();
+	lineage = null;
+	store = null;
+	households = false;
+	seeded = false;
+	seed = 0;
+	end = -1;
+	cache = null;
+	cacheBudget = -1;
+	threads = -1;
+	sketches = -1;
+	trace = -1;
+	scale = null;
+	variants.clear();
+	reorder = null;
+
+	Lineage.close(); // in case a failed job left it open
+	AgentStore.close();
+	Sketches.reset();
+	Colocation.reset();
+	Lockstep.reset();
+	Simulator.parallel( 0 );
+	Error.reset();
+	Simulator.reset();
+	Person.reset();
+	Place.reset();
+	WorkPlace.reset();
+	Trigger.reset();
+	PlaceType.reset();
+	ResultCache.reset();
+	MyRandom.stream().setSeed( new Random().nextLong() );
+    }
+
+    /** Run one simulation as a job
+     *  @param scenario the text of the community description
+     *  @param out where the reports and any error messages go
+     *  @throws Error.Fatal if the job fails
+     *  Used by JobServer, which runs many jobs in one program.
+     *  Everything about any previous job is forgotten first.
+     */
+    public static void runJob( String scenario, PrintStream out ) {
+	reset();
+	Person.reports = out;
+	Error.err = out;
+	try {
+	    simulate( new MyScanner( scenario ) );
+	} finally {
+	    MetricsServer.stop(); // an idle worker has no metrics to show
+	}
+    }
+
     /** The main method
      *  This handles the command line arguments.
      *  @param args, the array of command-line arguments
      *  If the args are OK, it calls other methods to build and test a model.
      */
     public static void main( String[] args ) {
-	if (args.length < 1) {
-	    Error.fatal( "Missing file name argument\n" );
-	} else try {
-	    readCommunity( new MyScanner( new File( args[0] ) ) );
-	    Error.quitIfAny();
-	    buildCommunity();  // build what was read above
-	    // writeCommunity();  // DEBUG -- this is just for debugging
-	    Simulator.run();
-	} catch ( FileNotFoundException e) {
-	    Error.fatal( "Can't open file: " + args[0] + "\n" );
+	try {
+	    if (args.length < 1) Error.fatal( "Missing file name argument\n" );
+	    MyScanner sc = null;
+	    try {
+		sc = new MyScanner( new File( args[0] ) );
+	    } catch ( FileNotFoundException e ) {
+		Error.fatal( "Can't open file: " + args[0] + "\n" );
+	    }
+	    simulate( sc );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
 	}
+	System.exit( 0 ); // don't wait for helper threads such as metrics
     }
 }
@@ -1,35 +1,67 @@
+import java.io.PrintStream;
+
 /**
  * Error handling
  * @author Tom McDowell
  * @author Douglas Jones
- * @version 11/2/2020
+ * @version 12/21/2020 -- fatal errors end the run, not the program
  * Status: Stable through many previous versions
  */
 public class Error{
     private static int errorCount = 0;
     private static final int errorLimit = 10;
 
+    /** where errors and other notices are reported, normally System.err
+     */
+    static PrintStream err = System.err;
+
+    /** Thrown by fatal errors to end the current simulation run
+     *  The main method turns this into an exit with an error indication,
+     *  while the job server reports it as the failure of just one job.
+     */
+    public static class Fatal extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	Fatal( String message ) {
+	    super( message );
+	}
+    }
+
     /** Report a warning to System.err
      *  @param message the text of the warning
+     *  @throws Fatal if there have been too many warnings
      */
     public static void warn( String message ) {
-	System.err.println( message );
+	err.println( message );
 	errorCount = errorCount + 1;
-	if (errorCount > errorLimit) System.exit( 1 );
+	if (errorCount > errorLimit) throw new Fatal( "too many errors" );
     }
 
     /** Report a fatal error to System.err
      *  @param message the text reporting the error
-     *  Note that this code exits the program with an error indication
+     *  @throws Fatal always, ending the run
      */
     public static void fatal( String message ) {
 	warn( message );
-	System.exit( 1 );
+	throw new Fatal( message );
     }
 
     /** Quit if there were any errors
+     *  @throws Fatal if there were any errors
      */
     public static void quitIfAny() {
-	if (errorCount > 0) System.exit( 1 );
+	if (errorCount > 0) throw new Fatal( errorCount + " errors" );
+    }
+
+    /** Report something that is not an error to System.err
+     *  @param message the text of the notice
+     */
+    public static void note( String message ) {
+	err.println( message );
+    }
+
+    /** Forget all errors, so a new run can start clean
+     */
+    static void reset() {
+	errorCount = 0;
     }
 }
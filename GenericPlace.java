@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.LinkedList;
+
+/**
+ * Places of a kind described in the community description file
+ * Schools, stores and the like are all GenericPlaces, each belonging to
+ * a PlaceType that says how big they are, how infectious, when they are
+ * open and who belongs to them.  Their members come and go in batches,
+ * moved by their PlaceType, so they need no events of their own.
+ * @author Thomas McDowell
+ * @version 1/11/2021
+ * Status: New code
+ * @see Place
+ * @see PlaceType
+ */
+class GenericPlace extends Place {
+    private static final long serialVersionUID = 1L;
+    final PlaceType type;   // the type of this place
+    private transient LinkedList <Person> members =
+	new LinkedList <Person> ();
+
+    /** The only constructor for GenericPlace
+     *  @param type the type of the new place
+     *  @param t the transmissivity of the new place
+     *  GenericPlaces are constructed with no members
+     */
+    GenericPlace( PlaceType type, double t ) {
+	super(); // initialize the underlying place
+	super.transmissivity = t;
+	this.type = type;
+    }
+
+    /** Add a member to the place
+     *  @param p the new member
+     */
+    void addMember( Person p ) {
+	members.add( p );
+    }
+
+    /** Forget the dead members of this place
+     *  @return the number of members forgotten
+     *  Should only be called when compacting away the dead
+     */
+    int removeDead() {
+	int before = members.size();
+	members.removeIf( (Person p)-> p.state() == Person.States.dead );
+	return before - members.size();
+    }
+
+    /** Restore transient fields as a place is deserialized
+     *  @param in the stream the place is being read from
+     */
+    private void readObject( ObjectInputStream in )
+	throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	members = new LinkedList <Person> ();
+    }
+
+    /** Allow outsiders to see the members
+     *  @return the people who belong here
+     */
+    Iterable <Person> members() {
+	return members;
+    }
+
+    /** Allow the PlaceType to move people here and away
+     *  @return the people who are here now
+     */
+    LinkedList <Person> occupants() {
+	return occupants;
+    }
+
+    /** Primarily for debugging
+     * @return textual name of the place
+     */
+    public String toString() {
+	return type.name + " " + name;
+    }
+}
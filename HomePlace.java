@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.LinkedList;
 
 /**
@@ -10,22 +12,37 @@ import java.util.LinkedList;
  * @see Person
  */
 class HomePlace extends Place {
-    private final LinkedList <Person> residents = new LinkedList <Person> ();
+    private static final long serialVersionUID = 1L;
+    private transient LinkedList <Person> residents =
+	new LinkedList <Person> ();
+
+    // residents who never leave, counted by state instead of being
+    // people of their own; null until the first is added
+    private int[] stayers = null;
 
     // transmissivity median and scatter for homes
     // BUG --  These should come from model description file, not be hard coded
     private static final double transMed = 0.03 * Simulator.hour;
     private static final double transScat = 0.02 * Simulator.hour;
 
-    // need a source of random numbers
+    private static final Distribution trans =
+	new Distribution.LogNormal( transMed, transScat );
+
     private static final MyRandom rand = MyRandom.stream();
 
     /** The only constructor for Place
      *  Places are constructed with no occupants
      */
     public HomePlace() {
+	this( trans.next() );
+    }
+
+    /** Constructor for Place with a known transmissivity
+     *  @param t the transmissivity of the new place
+     */
+    public HomePlace( double t ) {
 	super(); // initialize the underlying place
-	super.transmissivity = rand.nextLogNormal( transMed, transScat );
+	super.transmissivity = t;
     }
 
     /** Add a resident to a place
@@ -38,6 +55,79 @@ class HomePlace extends Place {
 	// no need to check to see if the person already lives there?
     }
 
+    /** Add a resident who never leaves, counted instead of constructed
+     *  Should only be called while building the community, for people
+     *  who would be neither employees nor members of any place type.
+     */
+    void addStayer() {
+	if (stayers == null) stayers = new int[Person.States.values().length];
+	stayers[Person.States.uninfected.ordinal()]++;
+	Counters.add( Person.States.uninfected, 1 );
+    }
+
+    /** @return the number of residents who never leave in some state
+     *  @param s the state
+     */
+    int stayers( Person.States s ) {
+	return (stayers == null) ? 0 : stayers[s.ordinal()];
+    }
+
+    /** Move one resident who never leaves to a new state, keeping count
+     *  @param from the state they were in
+     *  @param to the new state
+     *  @param t the time of the change
+     *  Called only by Person, as it changes the states of people.
+     */
+    void changeStayer( Person.States from, Person.States to, double t ) {
+	stayers[from.ordinal()]--;
+	stayers[to.ordinal()]++;
+	Counters.add( from, -1 );
+	Counters.add( to, 1 );
+	Trigger.counted( from, t );
+	Trigger.counted( to, t );
+    }
+
+    /** Give the uninfected who never leave their chance of infection
+     *  @param pInfection the chance each has
+     *  @param time the time of any infection
+     */
+    protected void infectOthers( double pInfection, double time ) {
+	int uninfected = stayers( Person.States.uninfected );
+	for (int i = 0; i < uninfected; i++) {
+	    if (rand.nextDouble() < pInfection) {
+		Person.infectStayer( this, time );
+		if (Results.streaming) Results.infection( null, this, time );
+		if (Sketches.on) Sketches.infection( this );
+	    }
+	}
+    }
+
+    /** Restore transient fields as a home is deserialized
+     *  @param in the stream the home is being read from
+     */
+    private void readObject( ObjectInputStream in )
+	throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	residents = new LinkedList <Person> ();
+    }
+
+    /** Remove a resident from a place
+     *  Should only be called when compacting away the dead
+     *  @param r a Person, the resident to forget
+     */
+    void removeResident( Person r ) {
+	boolean wasPresent = residents.remove( r );
+	assert wasPresent: "r=" + r + " this=" + this;
+    }
+
+    /** Allow outsiders to see the residents
+     *  @return the people who live here
+     */
+    Iterable <Person> members() {
+	return residents;
+    }
+
     /** Primarily for debugging
      * @return textual name and residents of the home
      */
@@ -0,0 +1,206 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived server that runs simulations as jobs
+ * Clients connect to a socket on localhost, send a community description
+ * in the same format as the file given to Epidemic, and close their side
+ * of the connection.  The daily reports are sent back as the job runs,
+ * bracketed by lines starting with "job" that give the job's progress.
+ * <p>
+ * The simulator keeps its model in static variables, so each worker thread
+ * loads its own private copy of the simulator classes; jobs on different
+ * workers can then run at the same time, while jobs on the same worker
+ * reuse classes that the JIT compiler has already warmed up.
+ * <p>
+ * Usage: java JobServer port [workers [queue]]
+ * @author Thomas McDowell
+ * @version 12/21/2020
+ * Status: New code
+ * @see Epidemic
+ */
+public class JobServer {
+    private JobServer(){} // prevent anyone from instantiating this class
+
+    // the private copy of Epidemic.runJob() for each worker thread
+    private static final ThreadLocal <Method> runner =
+	ThreadLocal.withInitial( JobServer::isolatedRunner );
+
+    private static int jobCount = 0; // used to number the jobs
+
+    /** Make a loader for a private copy of the simulator classes
+     *  @return the loader
+     *  Classes are loaded from where this class came from, without
+     *  delegating to the application class loader, which would share them,
+     *  except MetricsHub, which all copies must share.  Also used by
+     *  Calibrate, whose workers need their own copies too.
+     */
+    static ClassLoader isolatedLoader() {
+	URL here = JobServer.class.getProtectionDomain()
+	    .getCodeSource().getLocation();
+	return new URLClassLoader(
+	    new URL[] { here }, ClassLoader.getPlatformClassLoader()
+	) {
+	    // all copies share the one metrics server
+	    @Override
+	    protected Class<?> loadClass( String name, boolean resolve )
+		throws ClassNotFoundException
+	    {
+		if (name.equals( "MetricsHub" )) return MetricsHub.class;
+		return super.loadClass( name, resolve );
+	    }
+	};
+    }
+
+    /** Load a private copy of the simulator classes
+     *  @return the method to run a job with the private copy
+     */
+    private static Method isolatedRunner() {
+	try {
+	    return Class.forName( "Epidemic", true, isolatedLoader() )
+		.getMethod( "runJob", String.class, PrintStream.class );
+	} catch ( ReflectiveOperationException e ) {
+	    throw new IllegalStateException( "can't load simulator", e );
+	}
+    }
+
+    /** A job, one simulation for one client
+     */
+    private static class Job implements Runnable {
+	final int number;
+	final String scenario;
+	final Socket client;
+	final PrintStream out;
+
+	Job( int number, String scenario, Socket client ) throws IOException {
+	    this.number = number;
+	    this.scenario = scenario;
+	    this.client = client;
+	    this.out = new PrintStream(
+		client.getOutputStream(), true, StandardCharsets.UTF_8
+	    );
+	}
+
+	/** Run the job, reporting failure only to the client
+	 */
+	public void run() {
+	    long start = System.nanoTime();
+	    synchronized (this) { // wait until the client is told it's queued
+		out.println( "job " + number + " started" );
+	    }
+	    try {
+		runner.get().invoke( null, scenario, out );
+		out.println(
+		    "job " + number + " done in "
+		    + ((System.nanoTime() - start) / 1e9) + " seconds"
+		);
+	    } catch ( InvocationTargetException e ) {
+		// Error.Fatal from the private copy, or a bug in the model
+		Throwable cause = e.getCause();
+		out.println( "job " + number + " failed: " + cause );
+	    } catch ( Exception e ) {
+		out.println( "job " + number + " failed: " + e );
+	    } finally {
+		close( client );
+	    }
+	}
+    }
+
+    /** Close a client connection, ignoring any problem doing so
+     *  @param client the connection to close
+     */
+    private static void close( Socket client ) {
+	try {
+	    client.close();
+	} catch ( IOException e ) {
+	    // nothing more to say to this client anyway
+	}
+    }
+
+    /** Read a community description from a client and queue it as a job
+     *  @param client the connection from the client
+     *  @param workers the pool of workers that run jobs
+     */
+    private static void accept( Socket client, ThreadPoolExecutor workers ) {
+	try {
+	    InputStream in = client.getInputStream();
+	    ByteArrayOutputStream text = new ByteArrayOutputStream();
+	    in.transferTo( text ); // until the client shuts down its output
+	    String scenario = text.toString( StandardCharsets.UTF_8 );
+
+	    int number;
+	    synchronized (JobServer.class) {
+		jobCount = jobCount + 1;
+		number = jobCount;
+	    }
+	    Job job = new Job( number, scenario, client );
+	    try {
+		synchronized (job) { // so "queued" comes before "started"
+		    workers.execute( job );
+		    job.out.println( "job " + number + " queued" );
+		}
+	    } catch ( RejectedExecutionException e ) {
+		job.out.println( "job " + number + " rejected: queue full" );
+		close( client );
+	    }
+	} catch ( IOException e ) {
+	    close( client );
+	}
+    }
+
+    /** The main method
+     *  @param args, the port, and optionally the numbers of workers and of
+     *  jobs that may wait in the queue
+     */
+    public static void main( String[] args ) {
+	if (args.length < 1) {
+	    System.err.println(
+		"usage: java JobServer port [workers [queue]]"
+	    );
+	    System.exit( 1 );
+	}
+	int port = Integer.parseInt( args[0] );
+	int threads = (args.length > 1) ? Integer.parseInt( args[1] )
+	    : Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+	int queue = (args.length > 2) ? Integer.parseInt( args[2] ) : 16;
+
+	ThreadPoolExecutor workers = new ThreadPoolExecutor(
+	    threads, threads, 0, TimeUnit.SECONDS,
+	    new ArrayBlockingQueue <Runnable> ( queue )
+	);
+
+	try (ServerSocket server = new ServerSocket(
+	    port, 50, InetAddress.getLoopbackAddress()
+	)) {
+	    System.err.println(
+		"JobServer on port " + port + " with " + threads + " workers"
+	    );
+	    for (;;) {
+		Socket client = server.accept();
+		// read each request on its own thread so one slow client
+		// can't hold up the others
+		Thread reader = new Thread( () -> accept( client, workers ) );
+		reader.setDaemon( true );
+		reader.start();
+	    }
+	} catch ( IOException e ) {
+	    System.err.println( "JobServer: " + e.getMessage() );
+	    System.exit( 1 );
+	}
+    }
+}
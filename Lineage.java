@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * Append-only record of who infected whom, for later analysis
+ * Each infection is recorded as the person infected, the place, the time
+ * and the candidate infectors, those who were infectious there at the
+ * time.  Initial infections are recorded with place -1 and no candidates.
+ * <p>
+ * The record is a directory of column files, each a plain array of
+ * little-endian numbers written through memory mapping, so recording an
+ * infection costs a few stores and the columns can be mapped back in by
+ * LineageReport without any parsing:
+ * <pre>
+ *   infectee.i32 place.i32 time.f64 first.i64   one entry per infection
+ *   infector.i32    candidates; those of infection i are from first[i]
+ *                   up to first[i + 1], or to the end for the last one
+ *   kind.i8 size.i32   kind (0 home, 1 workplace, 2 other) and members,
+ *                      per place
+ * </pre>
+ * People are identified by their serial numbers, which compaction never
+ * changes, and places by their ids.
+ * @author Thomas McDowell
+ * @version 1/8/2021
+ * Status: New code
+ * @see LineageReport
+ * @see Place
+ */
+public class Lineage {
+    private Lineage(){} // prevent anyone from instantiating this class
+
+    /** true when infections are being recorded
+     */
+    static boolean recording = false;
+
+    private static File dir;
+    private static Column infectee;
+    private static Column place;
+    private static Column time;
+    private static Column first;
+    private static Column infector;
+
+    /** An append-only column of numbers in a memory-mapped file
+     */
+    static class Column {
+	private static final int window = 1 << 24; // bytes mapped at a time
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long base = 0; // file position of the start of buffer
+
+	Column( File f ) throws IOException {
+	    f.delete(); // append-only, but only within one run
+	    file = new RandomAccessFile( f, "rw" );
+	    channel = file.getChannel();
+	    map( 0 );
+	}
+
+	// map the window starting at position p, growing the file
+	private void map( long p ) throws IOException {
+	    base = p;
+	    buffer = channel.map( FileChannel.MapMode.READ_WRITE, p, window );
+	    buffer.order( ByteOrder.LITTLE_ENDIAN );
+	}
+
+	// make room for n more bytes
+	private void room( int n ) {
+	    if (buffer.remaining() < n) try {
+		map( base + buffer.position() );
+	    } catch ( IOException e ) {
+		throw new IllegalStateException( "lineage: " + e, e );
+	    }
+	}
+
+	void putByte( byte b )     { room( 1 ); buffer.put( b ); }
+	void putInt( int i )       { room( 4 ); buffer.putInt( i ); }
+	void putLong( long l )     { room( 8 ); buffer.putLong( l ); }
+	void putDouble( double d ) { room( 8 ); buffer.putDouble( d ); }
+
+	/** @return the number of bytes written so far
+	 */
+	long length() {
+	    return base + buffer.position();
+	}
+
+	/** Trim the file to what was written and close it
+	 */
+	void close() throws IOException {
+	    long length = length();
+	    buffer.force();
+	    buffer = null; // the mapping goes away when collected
+	    channel.truncate( length );
+	    file.close();
+	}
+    }
+
+    /** Start recording infections
+     *  @param d the directory to hold the record, created if need be
+     *  @throws IOException if the record can't be created
+     */
+    static void open( File d ) throws IOException {
+	dir = d;
+	dir.mkdirs();
+	infectee = new Column( new File( dir, "infectee.i32" ) );
+	place = new Column( new File( dir, "place.i32" ) );
+	time = new Column( new File( dir, "time.f64" ) );
+	first = new Column( new File( dir, "first.i64" ) );
+	infector = new Column( new File( dir, "infector.i32" ) );
+	recording = true;
+    }
+
+    /** Record an initial infection
+     *  @param p the person infected from the beginning of time
+     */
+    static void seed( Person p ) {
+	infectee.putInt( p.serial );
+	place.putInt( -1 );
+	time.putDouble( 0.0 );
+	first.putLong( infector.length() / 4 );
+    }
+
+    /** Record an infection at a place
+     *  @param p the person infected
+     *  @param where the place where the infection happened
+     *  @param t the time of the infection
+     *  @param candidates the infectious occupants of that place
+     *  @param n the number of candidates
+     */
+    static void infection(
+	Person p, Place where, double t, Person[] candidates, int n
+    ) {
+	infectee.putInt( p.serial );
+	place.putInt( where.id );
+	time.putDouble( t );
+	first.putLong( infector.length() / 4 );
+	for (int i = 0; i < n; i++) infector.putInt( candidates[i].serial );
+    }
+
+    /** Finish the record, adding what LineageReport needs about places
+     */
+    static void close() {
+	if (!recording) return;
+	recording = false;
+	try {
+	    Column kind = new Column( new File( dir, "kind.i8" ) );
+	    Column size = new Column( new File( dir, "size.i32" ) );
+	    for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+		Place p = i.next();
+		kind.putByte( ContactGraph.kind( p ) );
+		int members = 0;
+		for (Person m: p.members()) members = members + 1;
+		size.putInt( members );
+	    }
+	    kind.close();
+	    size.close();
+
+	    infectee.close();
+	    place.close();
+	    time.close();
+	    first.close();
+	    infector.close();
+	} catch ( IOException e ) {
+	    Error.warn( "lineage "+dir+": can't finish, " + e.getMessage() );
+	}
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Analysis of the infection record made by Lineage
+ * Usage: java LineageReport directory
+ * <p>
+ * The columns are mapped straight into memory, so even a record of
+ * millions of infections takes only a few passes over arrays.  Where an
+ * infection has k candidate infectors, each is credited with 1/k of it.
+ * The report gives the distribution of generation intervals, the number
+ * of others infected by the people infected each day (the cohort
+ * reproduction number) and, for each kind of place, the infections that
+ * happened there relative to the people who belong there.
+ * @author Thomas McDowell
+ * @version 1/8/2021
+ * Status: New code
+ * @see Lineage
+ */
+public class LineageReport {
+    private LineageReport(){} // prevent anyone from instantiating this class
+
+    /** Map a whole column of the record into memory
+     *  @param dir the directory holding the record
+     *  @param name the name of the column
+     *  @return the column, little-endian, as Lineage wrote it
+     *  @throws Error.Fatal if the column can't be mapped
+     */
+    private static ByteBuffer column( File dir, String name ) {
+	File f = new File( dir, name );
+	try (RandomAccessFile file = new RandomAccessFile( f, "r" )) {
+	    long length = file.length();
+	    if (length > Integer.MAX_VALUE) Error.fatal( f + ": too big" );
+	    ByteBuffer b = file.getChannel().map(
+		FileChannel.MapMode.READ_ONLY, 0, length
+	    ); // the mapping outlives the file
+	    return b.order( ByteOrder.LITTLE_ENDIAN );
+	} catch ( IOException e ) {
+	    Error.fatal( "Can't map " + f + ": " + e.getMessage() );
+	    return null; // never happens
+	}
+    }
+
+    /** Print the report
+     *  @param dir the directory holding the record
+     */
+    static void report( File dir ) {
+	ByteBuffer infectee = column( dir, "infectee.i32" );
+	ByteBuffer place = column( dir, "place.i32" );
+	ByteBuffer time = column( dir, "time.f64" );
+	ByteBuffer first = column( dir, "first.i64" );
+	ByteBuffer infector = column( dir, "infector.i32" );
+	ByteBuffer kind = column( dir, "kind.i8" );
+	ByteBuffer size = column( dir, "size.i32" );
+
+	int n = infectee.capacity() / 4;        // infections
+	long m = infector.capacity() / 4;       // candidate infectors
+	int places = kind.capacity();
+
+	// when each person was infected, by serial number
+	int people = 0;
+	for (int i = 0; i < n; i++) {
+	    people = Math.max( people, infectee.getInt( i * 4 ) + 1 );
+	}
+	double[] infectedAt = new double[people];
+	Arrays.fill( infectedAt, Double.NaN );
+	for (int i = 0; i < n; i++) {
+	    infectedAt[infectee.getInt( i * 4 )] = time.getDouble( i * 8 );
+	}
+
+	// generation intervals by day and credit for infecting others
+	int days = 1;
+	for (int i = 0; i < n; i++) {
+	    double t = time.getDouble( i * 8 ) / Simulator.day;
+	    days = Math.max( days, (int)t + 1 );
+	}
+	double[] interval = new double[days];  // weight per interval in days
+	double[] offspring = new double[people];
+	double attributed = 0.0;
+	for (int i = 0; i < n; i++) {
+	    long from = first.getLong( i * 8 );
+	    long to = (i + 1 < n) ? first.getLong( (i + 1) * 8 ) : m;
+	    if (from == to) continue; // a seed, infected by no one
+	    double t = time.getDouble( i * 8 );
+	    double w = 1.0 / (to - from);
+	    for (long c = from; c < to; c++) {
+		int who = infector.getInt( (int)(c * 4) );
+		offspring[who] = offspring[who] + w;
+		double gap = (t - infectedAt[who]) / Simulator.day;
+		if (!Double.isNaN( gap )) {
+		    interval[(int)gap] = interval[(int)gap] + w;
+		    attributed = attributed + w;
+		}
+	    }
+	}
+
+	System.out.println( n + " infections, " + places + " places" );
+
+	System.out.println( "generation interval (days), share of infections" );
+	double mean = 0.0;
+	for (int d = 0; d < days; d++) {
+	    if (interval[d] == 0.0) continue;
+	    System.out.printf( "%4d %8.4f%n", d, interval[d] / attributed );
+	    mean = mean + (d + 0.5) * interval[d];
+	}
+	if (attributed > 0) {
+	    System.out.printf( "mean %.2f days%n", mean / attributed );
+	}
+
+	// the cohort infected on each day, and who they went on to infect
+	System.out.println( "day infected, cohort, mean infected by each" );
+	int[] cohort = new int[days];
+	double[] secondary = new double[days];
+	for (int i = 0; i < n; i++) {
+	    int who = infectee.getInt( i * 4 );
+	    int d = (int)(infectedAt[who] / Simulator.day);
+	    cohort[d] = cohort[d] + 1;
+	    secondary[d] = secondary[d] + offspring[who];
+	}
+	for (int d = 0; d < days; d++) {
+	    if (cohort[d] == 0) continue;
+	    System.out.printf(
+		"%4d %8d %8.3f%n", d, cohort[d], secondary[d] / cohort[d]
+	    );
+	}
+
+	// infections by kind of place against the people who belong there
+	System.out.println( "place kind, infections, members, attack rate" );
+	String[] kindName = { "home", "work", "other" };
+	long[] members = new long[kindName.length];
+	long[] infections = new long[kindName.length];
+	for (int p = 0; p < places; p++) {
+	    int k = kind.get( p );
+	    members[k] = members[k] + size.getInt( p * 4 );
+	}
+	for (int i = 0; i < n; i++) {
+	    int p = place.getInt( i * 4 );
+	    if (p < 0) continue; // a seed
+	    int k = kind.get( p );
+	    infections[k] = infections[k] + 1;
+	}
+	for (int k = 0; k < kindName.length; k++) {
+	    System.out.printf( "%s %8d %8d %8.4f%n",
+		kindName[k], infections[k], members[k],
+		(members[k] > 0) ? (double)infections[k] / members[k] : 0.0
+	    );
+	}
+    }
+
+    /** The main program
+     *  @param args the command line arguments, just the record directory
+     */
+    public static void main( String[] args ) {
+	try {
+	    if (args.length < 1) Error.fatal( "Missing directory argument" );
+	    report( new File( args[0] ) );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+    }
+}
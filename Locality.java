@@ -0,0 +1,177 @@
+import java.util.Iterator;
+
+/**
+ * Reordering of people and places so those that meet are near each other
+ * The community is built with people shuffled, so housemates and
+ * coworkers end up far apart in the population, and in memory, and
+ * every check of who to infect in a place touches people scattered
+ * across the heap.  Once the community is built, with its random
+ * assignments made, this renumbers people and places in reverse
+ * Cuthill-McKee order of the graph of who belongs where, so that the
+ * members of each place have nearby numbers, and puts the population and
+ * the places in order of their new numbers.
+ * <p>
+ * Renumbering alone moves nothing in memory, where objects lie in the
+ * order they were made, and where copying collectors tend to move them in
+ * the order they find them, which is the order of the population.  So the
+ * whole community is then made again, in its new order, by taking a
+ * snapshot and restoring it.  Serial numbers never change.
+ * <p>
+ * How far apart the members of a place are in the population, on average,
+ * before and after, is noted; see Benchmark for the effect on speed.
+ * @author Thomas McDowell
+ * @version 1/30/2021
+ * Status: New code
+ * @see ContactGraph
+ * @see Snapshot
+ */
+public class Locality {
+    private Locality(){} // prevent anyone from instantiating this class
+
+    /** Reorder the community, once it is built
+     *  Called only between events, before anything that indexes people
+     *  or places by id starts, such as a store.
+     */
+    static void reorder() {
+	long start = System.nanoTime();
+	ContactGraph g = ContactGraph.build();
+	int agents = g.agents();
+	int n = agents + g.places(); // agents first, then places
+
+	// the Cuthill-McKee order, component by component, each from a
+	// node of least degree, neighbors taken in order of degree
+	int[] degree = new int[n];
+	for (int a = 0; a < agents; a++) {
+	    degree[a] = g.agentStart[a + 1] - g.agentStart[a];
+	}
+	for (int p = 0; p < g.places(); p++) {
+	    degree[agents + p] = g.placeStart[p + 1] - g.placeStart[p];
+	}
+	int[] byDegree = sortByDegree( degree, n );
+	int[] order = new int[n];
+	boolean[] seen = new boolean[n];
+	int tail = 0;
+	for (int s: byDegree) {
+	    if (seen[s]) continue;
+	    seen[s] = true;
+	    order[tail++] = s;
+	    for (int head = tail - 1; head < tail; head++) {
+		int u = order[head];
+		int from = tail;
+		if (u < agents) {
+		    int end = g.agentStart[u + 1];
+		    for (int i = g.agentStart[u]; i < end; i++) {
+			int v = agents + g.agentPlace[i];
+			if (seen[v]) continue;
+			seen[v] = true;
+			order[tail++] = v;
+		    }
+		} else {
+		    int p = u - agents;
+		    int end = g.placeStart[p + 1];
+		    for (int i = g.placeStart[p]; i < end; i++) {
+			int v = g.placeAgent[i];
+			if (seen[v]) continue;
+			seen[v] = true;
+			order[tail++] = v;
+		    }
+		}
+		sortRange( order, from, tail, degree );
+	    }
+	}
+
+	// reversed, and split into new numbers for people and for places
+	int[] personId = new int[agents];
+	int[] placeId = new int[g.places()];
+	int people = 0;
+	int places = 0;
+	for (int i = n - 1; i >= 0; i--) {
+	    int u = order[i];
+	    if (u < agents) {
+		personId[u] = people++;
+	    } else {
+		placeId[u - agents] = places++;
+	    }
+	}
+
+	// where each person was in the population, to compare
+	int[] position = new int[agents];
+	int k = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    position[i.next().id] = k++;
+	}
+	double before = spread( g, position );
+	double after = spread( g, personId );
+	Person.renumber( personId );
+	Place.renumber( placeId );
+	Snapshot.restore( Snapshot.take( Simulator.now() ) ); // made again
+
+	Error.note( "reorder: " + people + " people and " + places
+	    + " places in " + ((System.nanoTime() - start) / 1000000)
+	    + " ms, members of a place were " + Math.round( before )
+	    + " apart, now " + Math.round( after )
+	);
+    }
+
+    /** @return the nodes of a graph in order of degree
+     *  @param degree the degree of each node
+     *  @param n the number of nodes
+     *  This is a counting sort, so nodes of equal degree stay in order.
+     */
+    private static int[] sortByDegree( int[] degree, int n ) {
+	int most = 0;
+	for (int d: degree) most = Math.max( most, d );
+	int[] start = new int[most + 2];
+	for (int d: degree) start[d + 1]++;
+	for (int d = 0; d <= most; d++) start[d + 1] += start[d];
+	int[] sorted = new int[n];
+	for (int u = 0; u < n; u++) sorted[start[degree[u]]++] = u;
+	return sorted;
+    }
+
+    /** Sort part of an array of nodes by degree, keeping ties in order
+     *  @param a the array
+     *  @param from the first index of the part
+     *  @param to the index just after the part
+     *  @param degree the degree of each node
+     *  The parts are the new neighbors of one node, so mostly small;
+     *  this is an insertion sort.
+     */
+    private static void sortRange( int[] a, int from, int to, int[] degree ) {
+	for (int i = from + 1; i < to; i++) {
+	    int u = a[i];
+	    int j = i - 1;
+	    while ((j >= from) && (degree[a[j]] > degree[u])) {
+		a[j + 1] = a[j];
+		j = j - 1;
+	    }
+	    a[j + 1] = u;
+	}
+    }
+
+    /** @return the mean span of the positions of the members of a place
+     *  @param g the graph
+     *  @param position the position of each person, by id
+     *  Only places with more than one member count.
+     */
+    private static double spread( ContactGraph g, int[] position ) {
+	double sum = 0.0;
+	int count = 0;
+	for (int p = 0; p < g.places(); p++) {
+	    int from = g.placeStart[p];
+	    int to = g.placeStart[p + 1];
+	    if (to - from < 2) continue;
+	    int low = Integer.MAX_VALUE;
+	    int high = Integer.MIN_VALUE;
+	    for (int i = from; i < to; i++) {
+		int a = g.placeAgent[i];
+		int x = position[a];
+		low = Math.min( low, x );
+		high = Math.max( high, x );
+	    }
+	    sum = sum + (high - low);
+	    count = count + 1;
+	}
+	return (count == 0) ? 0.0 : sum / count;
+    }
+}
@@ -0,0 +1,452 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Variants of a simulation run in lockstep over one community
+ * Each variant is an epidemic of its own, with the transmissivity of
+ * workplaces and of other places scaled, as a branch of a fork would
+ * scale them, but all share the community and the movements of the lead
+ * simulation, the one the community description describes.  Movements
+ * are simulated once; the infection state of each person and the
+ * infectious count of each place in each variant are kept in arrays here,
+ * indexed by serial number or place id, and Place.whoToInfect() infects
+ * people in every variant at once.
+ * <p>
+ * The variants share the random numbers of the lead wherever they can,
+ * as common random numbers:  each occupant of a place gets the same draw
+ * in every variant as in the lead when the place gives them their chance
+ * of infection, and each person follows the same course of the disease
+ * in every variant, drawn by Person.step(), once the lead has drawn it.
+ * So a variant that scales nothing runs exactly as the lead does, and
+ * variants differ from the lead only where their scales make them.  To
+ * that end, changes in a variant alone only add up how long each place
+ * had how many infectious people, and the chances are given the next time
+ * the lead gives them.  Whatever the lead has not drawn, a variant draws
+ * from a stream of its own, so the lead runs just as it would alone.
+ * <p>
+ * Since everyone goes where the lead sends them, someone bedridden in a
+ * variant but not in the lead still goes out, but counts as infectious
+ * only at home, as if they had stayed there; someone dead in a variant
+ * still goes out, but neither infects nor is infected.  Someone the lead sends
+ * home to bed, or kills, simply stays there, or is nowhere, in every
+ * variant.
+ * @author Thomas McDowell
+ * @version 1/29/2021
+ * Status: New code
+ * @see Place
+ * @see Person
+ */
+public class Lockstep {
+    private Lockstep(){} // prevent anyone from instantiating this class
+
+    /** true if variants are running; test before calling the others
+     */
+    static boolean on = false;
+
+    /** true if the courses the lead draws are being kept; test before
+     *  calling drawn()
+     */
+    static boolean drawing = false;
+
+    private static final Person.States[] states = Person.States.values();
+    private static final int latent = Person.States.latent.ordinal();
+    private static final int infectious = Person.States.infectious.ordinal();
+    private static final int bedridden = Person.States.bedridden.ordinal();
+
+    private static int k;            // the number of variants
+    private static double[][] scale; // work, home scale of each variant
+
+    // the state of each person in each variant, at serial * k + variant,
+    // and the number counted infectious at each place, at id * k + variant
+    private static byte[] state;
+    private static int[] count;
+
+    // when the counts of each place were last added up, by id, and what
+    // they added up to, in infectious person hours, at id * k + variant,
+    // since the lead last gave the occupants their chances
+    private static double[] checked;
+    private static double[] exposure;
+
+    // where each person is, by serial, as place id + 1, or 0 if nowhere
+    private static int[] at;
+    private static Place[] places;
+
+    // the course of the disease the lead drew for each person, for each
+    // of latent, infectious and bedridden, at serial * 3 + stage:  the
+    // ordinal of the next state plus one, or 0 if not drawn, and the delay
+    private static byte[] next = new byte[0];
+    private static double[] delay = new double[0];
+
+    // the draws of the lead for the occupants of a place, in order, and
+    // whether they are in use, as when a trigger fires mid way
+    private static double[] draws = new double[16];
+    private static boolean lent = false;
+
+    // the counts of each state in each variant
+    private static int[][] counts;
+
+    // the variants' own source of random numbers
+    private static MyRandom rand;
+
+    /** Keep the course of the disease the lead draws for each person
+     *  Called before the community is built, so the courses of those
+     *  infected at the start are kept too.
+     */
+    static void record() {
+	drawing = true;
+    }
+
+    /** Keep one step of the course of the disease the lead drew
+     *  @param p the person
+     *  @param from the state the step is from
+     *  @param s the step
+     */
+    static void drawn( Person p, Person.States from, Person.Step s ) {
+	if (p.serial < 0) return; // a stand-in, never in any variant
+	int i = p.serial * 3 + from.ordinal() - latent;
+	if (i >= next.length) {
+	    int n = Math.max( i + 1, next.length * 2 );
+	    next = Arrays.copyOf( next, n );
+	    delay = Arrays.copyOf( delay, n );
+	}
+	next[i] = (byte)(s.to.ordinal() + 1);
+	delay[i] = s.delay;
+    }
+
+    /** @return the next step in the course of the disease for someone
+     *  @param p the person
+     *  @param from the state they are now in
+     *  The step the lead drew, if any, or one drawn afresh.
+     */
+    private static Person.Step course( Person p, Person.States from ) {
+	if (from.ordinal() > bedridden) return null; // recovered or dead
+	int i = p.serial * 3 + from.ordinal() - latent;
+	if ((i < next.length) && (next[i] != 0)) {
+	    return new Person.Step( states[next[i] - 1], delay[i] );
+	}
+	return Person.step( from, rand );
+    }
+
+    /** Start the variants, once the community is complete
+     *  @param variants the work and home scale of each variant
+     *  @param seed the seed for the variants' random numbers, or null
+     *  Those infected at the start of the lead are infected in every
+     *  variant too.
+     */
+    static void start( ArrayList<double[]> variants, Long seed ) {
+	k = variants.size();
+	scale = variants.toArray( new double[k][] );
+	rand = MyRandom.apart();
+	if (seed != null) rand.setSeed( seed );
+
+	int people = 0;
+	int n = 0; // places
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    people = Math.max( people, i.next().serial + 1 );
+	}
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    n = Math.max( n, i.next().id + 1 );
+	}
+	state = new byte[people * k]; // all uninfected
+	count = new int[n * k];
+	checked = new double[n];
+	exposure = new double[n * k];
+	counts = new int[k][states.length];
+	at = new int[people];
+	places = new Place[n];
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    places[p.id] = p;
+	}
+	on = true;
+
+	for (int v = 0; v < k; v++) {
+	    String line = "variant "+(v + 1)+": work "+scale[v][0]
+		+ ", home "+scale[v][1];
+	    Person.reports.println( line );
+	    ResultCache.line( line );
+	}
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    Place where = p.place();
+	    if (where != null) at[p.serial] = where.id + 1; // at home
+	    for (int v = 0; v < k; v++) {
+		counts[v][Person.States.uninfected.ordinal()]++;
+		if (p.state() != Person.States.uninfected) {
+		    infect( p, v, 0.0 );
+		}
+	    }
+	}
+    }
+
+    /** Stop running variants, so a new simulation can start
+     */
+    static void reset() {
+	on = false;
+	drawing = false;
+	scale = null;
+	state = null;
+	count = null;
+	checked = null;
+	exposure = null;
+	at = null;
+	places = null;
+	next = new byte[0];
+	delay = new double[0];
+	lent = false;
+	counts = null;
+	rand = null;
+    }
+
+    /** @return true if anyone in any variant may yet infect anyone
+     */
+    static boolean active() {
+	for (int[] c: counts) {
+	    if ((c[latent] > 0) || (c[infectious] > 0) || (c[bedridden] > 0)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /** @return where someone counts as infectious in some variant, or null
+     *  @param p the person
+     *  @param s their state in the variant
+     *  @param lead their state in the lead
+     *  @param a where they are, as place id + 1, or 0 if nowhere
+     *  The infectious count where they are; the bedridden count where
+     *  they are if bedridden in the lead too, since the lead takes them
+     *  home, and otherwise at home.
+     */
+    private static Place counted( Person p, int s, Person.States lead, int a ) {
+	if ((s == infectious)
+	||  ((s == bedridden) && (lead == Person.States.bedridden))) {
+	    return (a == 0) ? null : places[a - 1];
+	}
+	if (s == bedridden) return p.home();
+	return null;
+    }
+
+    /** Add up how long a place had how many infectious, up to now
+     *  @param where the place
+     *  @param t the time
+     */
+    private static void settle( Place where, double t ) {
+	double interval = (t - checked[where.id]) / Simulator.hour;
+	if (interval <= 0) return;
+	checked[where.id] = t;
+	for (int v = 0; v < k; v++) {
+	    int i = where.id * k + v;
+	    exposure[i] = exposure[i] + count[i] * interval;
+	}
+    }
+
+    /** Count someone infectious in a variant somewhere else
+     *  @param v the variant
+     *  @param was where they counted until now, or null
+     *  @param is where they count from now on, or null
+     *  @param t the time
+     */
+    private static void recount( int v, Place was, Place is, double t ) {
+	if (was == is) return;
+	if (was != null) {
+	    settle( was, t );
+	    count[was.id * k + v]--;
+	}
+	if (is != null) {
+	    settle( is, t );
+	    count[is.id * k + v]++;
+	}
+    }
+
+    /** Note someone moving, after the lead notes it
+     *  @param p the person
+     *  @param to where they are now, as place id + 1, or 0 if nowhere
+     *  @param t the time
+     */
+    private static void move( Person p, int to, double t ) {
+	int from = at[p.serial];
+	for (int v = 0; v < k; v++) {
+	    int s = state[p.serial * k + v];
+	    recount( v, counted( p, s, p.state(), from ),
+		counted( p, s, p.state(), to ), t
+	    );
+	}
+	at[p.serial] = to;
+    }
+
+    /** Note someone arriving at a place, after the lead notes it
+     *  @param where the place
+     *  @param p the person
+     *  @param t the time
+     */
+    static void arrive( Place where, Person p, double t ) {
+	move( p, where.id + 1, t );
+    }
+
+    /** Note someone leaving a place, after the lead notes it
+     *  @param where the place
+     *  @param p the person
+     *  @param t the time
+     */
+    static void depart( Place where, Person p, double t ) {
+	if (at[p.serial] != where.id + 1) return; // not here after all
+	move( p, 0, t );
+    }
+
+    /** Note someone changing state in the lead
+     *  @param p the person
+     *  @param from their state until now
+     *  @param to their state from now on
+     *  @param t the time
+     *  This moves the count of those bedridden in a variant, as the lead
+     *  starts or stops taking them home.
+     */
+    static void changed(
+	Person p, Person.States from, Person.States to, double t
+    ) {
+	if ((from == Person.States.bedridden)
+	==  (to == Person.States.bedridden)) return;
+	int a = at[p.serial];
+	for (int v = 0; v < k; v++) {
+	    if (state[p.serial * k + v] != bedridden) continue;
+	    recount( v, counted( p, bedridden, from, a ),
+		counted( p, bedridden, to, a ), t
+	    );
+	}
+    }
+
+    /** @return an array for the lead's draws for the occupants of a place
+     *  @param n the number of occupants
+     *  Filled in by Place.whoToInfect(), then passed to check().
+     */
+    static double[] draws( int n ) {
+	if (lent) return new double[n]; // for a place checked mid way
+	lent = true;
+	if (draws.length < n) {
+	    draws = new double[Math.max( n, draws.length * 2 )];
+	}
+	return draws;
+    }
+
+    /** Give the occupants of a place their chance of infection in each
+     *  variant, as the lead has just given them theirs
+     *  @param where the place
+     *  @param t the time of any infection
+     *  @param u the lead's draw for each occupant, in order
+     *  Called by Place.whoToInfect(), once the lead has drawn.  The
+     *  chance is worked out as the lead works out its own, so it is the
+     *  same when the counts are.
+     */
+    static void check( Place where, double t, double[] u ) {
+	if (u == draws) lent = false;
+	double interval = (t - checked[where.id]) / Simulator.hour;
+	if (interval < 0) interval = 0;
+	checked[where.id] = t;
+	double work = (where instanceof WorkPlace) ? 1.0 : 0.0;
+	double trans = where.transmissivity();
+	for (int v = 0; v < k; v++) {
+	    int i = where.id * k + v;
+	    double s = work * scale[v][0] + (1.0 - work) * scale[v][1];
+	    double pInfection = trans * s * count[i] * interval;
+	    if (exposure[i] != 0) {
+		pInfection = pInfection + trans * s * exposure[i];
+		exposure[i] = 0;
+	    }
+	    if (pInfection <= 0) continue;
+	    if (pInfection > 1.0) pInfection = 1.0;
+	    int j = 0;
+	    for (Person p: where.occupants) {
+		if ((state[p.serial * k + v] == 0) // uninfected
+		&&  (u[j] < pInfection)) infect( p, v, t );
+		j = j + 1;
+	    }
+	}
+    }
+
+    /** Infect someone in a variant
+     *  @param p the person
+     *  @param v the variant
+     *  @param t the time
+     */
+    private static void infect( Person p, int v, double t ) {
+	change( p, v, Person.States.latent, t );
+	Person.Step s = course( p, Person.States.latent );
+	Simulator.schedule( new VariantChange( t + s.delay, p, v, s.to ) );
+    }
+
+    /** Move someone in a variant to a new state, keeping count
+     *  @param p the person
+     *  @param v the variant
+     *  @param to the new state
+     *  @param t the time
+     */
+    private static void change( Person p, int v, Person.States to, double t ) {
+	int i = p.serial * k + v;
+	int from = state[i];
+	int a = at[p.serial];
+	recount( v, counted( p, from, p.state(), a ),
+	    counted( p, to.ordinal(), p.state(), a ), t
+	);
+	state[i] = (byte)to.ordinal();
+	counts[v][from]--;
+	counts[v][to.ordinal()]++;
+    }
+
+    /** Move someone on in the disease in a variant, as Person does
+     *  @param p the person
+     *  @param v the variant
+     *  @param to the state they are now in
+     *  @param t the time of the change
+     *  Called only by VariantChange.
+     */
+    static void progress( Person p, int v, Person.States to, double t ) {
+	if (!on) return; // left over from an earlier simulation
+	change( p, v, to, t );
+	Person.Step s = course( p, to );
+	if (s != null) {
+	    Simulator.schedule( new VariantChange( t + s.delay, p, v, s.to ) );
+	}
+    }
+
+    /** Report the counts of each variant with the daily report
+     *  @param t the time of the report
+     */
+    static void report( double t ) {
+	for (int v = 0; v < k; v++) {
+	    String s = "variant " + (v + 1) + " "
+		+ Person.format( Counters.view( t, counts[v] ) );
+	    Person.reports.println( s );
+	    ResultCache.line( s );
+	}
+    }
+}
+
+/** Event where a person moves on in the disease in a variant
+ *  @author Thomas McDowell
+ *  @version 1/29/2021
+ *  @see Simulator
+ *  @see Lockstep
+ */
+class VariantChange extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
+    final Person p;
+    final int v;
+    final Person.States to;
+    /** Event constructor
+     *  @param t the time of the change
+     *  @param p the person
+     *  @param v the variant
+     *  @param to the state they move to
+     */
+    VariantChange( double t, Person p, int v, Person.States to ) {
+	super( t );
+	this.p = p;
+	this.v = v;
+	this.to = to;
+    }
+    /** trigger() calls progress on this event's person
+     */
+    public void trigger() { Lockstep.progress( p, v, to, this.time ); }
+}
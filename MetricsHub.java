@@ -0,0 +1,223 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * The one HTTP server for live metrics in a program, on localhost.
+ * JobServer and Calibrate give each worker a private copy of the
+ * simulator classes, MetricsServer among them, but every copy is handed
+ * this one class, so a program has one server on one port however many
+ * simulations it runs at once.  Each copy opens a source of metrics here
+ * under a worker number, and each scrape of /metrics merges the metrics
+ * of every open source, with a worker label added to each sample, and
+ * those of the JVM.  Since the copies share no other class, this one
+ * uses nothing but the JDK, and its members the copies use are public.
+ * @author Thomas McDowell
+ * @version 2/2/2021
+ * Status: New code
+ * @see MetricsServer
+ * @see JobServer
+ */
+public final class MetricsHub {
+    private MetricsHub(){} // prevent anyone from instantiating this class
+
+    // the server and its port, once started; nothing ever stops the server
+    private static HttpServer server = null;
+    private static int serving = -1;
+
+    // the open sources, by worker number, and the numbers given out
+    private static final TreeMap <Integer, Supplier<String>> sources =
+	new TreeMap <Integer, Supplier<String>> ();
+    private static int workers = 0;
+
+    /** @return a worker number of its own, for one copy of the simulator
+     */
+    public static synchronized int worker() {
+	workers = workers + 1;
+	return workers;
+    }
+
+    /** @return the port being served, or -1 if none
+     */
+    public static synchronized int port() {
+	return serving;
+    }
+
+    /** Serve the metrics of a worker, starting the server if need be
+     *  @param port the port on localhost to serve metrics from
+     *  @param worker the worker number, from worker()
+     *  @param source gives the metrics of the worker's simulation, in
+     *  Prometheus text format, without labels of the worker's own
+     *  @throws IOException if the server can't be started
+     *  Once started, the server stays on its port, even if a later
+     *  worker asks for another; see port().
+     */
+    public static synchronized void open(
+	int port, int worker, Supplier<String> source
+    ) throws IOException {
+	if (server == null) {
+	    HttpServer s = HttpServer.create(
+		new InetSocketAddress( InetAddress.getLoopbackAddress(), port ),
+		0
+	    );
+	    s.createContext( "/metrics", MetricsHub::serve );
+
+	    // one daemon thread is plenty, and it must not keep us alive
+	    s.setExecutor( Executors.newSingleThreadExecutor( r -> {
+		Thread t = new Thread( r, "metrics" );
+		t.setDaemon( true );
+		return t;
+	    } ) );
+	    s.start();
+	    server = s;
+	    serving = port;
+	}
+	sources.put( worker, source );
+    }
+
+    /** Stop serving the metrics of a worker
+     *  @param worker the worker number
+     */
+    public static synchronized void close( int worker ) {
+	sources.remove( worker );
+    }
+
+    /** Answer one request for metrics
+     *  @param x the exchange with the client
+     */
+    private static void serve( HttpExchange x ) throws IOException {
+	byte[] body = scrape().getBytes( StandardCharsets.UTF_8 );
+	x.getResponseHeaders().set(
+	    "Content-Type", "text/plain; version=0.0.4; charset=utf-8"
+	);
+	x.sendResponseHeaders( 200, body.length );
+	try (OutputStream out = x.getResponseBody()) {
+	    out.write( body );
+	}
+    }
+
+    /** Take the current metrics of every worker, and of the JVM
+     *  @return the metrics, in Prometheus text format
+     *  The sources are asked outside the lock on this class, since each
+     *  takes a lock of its own copy, whose simulation may be opening or
+     *  closing a source at the time.
+     */
+    private static String scrape() {
+	ArrayList <Map.Entry <Integer, Supplier<String>>> open;
+	synchronized (MetricsHub.class) {
+	    open = new ArrayList <Map.Entry <Integer, Supplier<String>>> (
+		sources.entrySet()
+	    );
+	}
+
+	// each family of metrics once, with the samples of every worker
+	LinkedHashMap <String, StringBuilder> families =
+	    new LinkedHashMap <String, StringBuilder> ();
+	for (Map.Entry <Integer, Supplier<String>> e: open) {
+	    String label = "worker=\"" + e.getKey() + "\"";
+	    merge( families, e.getValue().get(), label );
+	}
+	merge( families, jvm(), null );
+
+	StringBuilder s = new StringBuilder();
+	for (StringBuilder f: families.values()) s.append( f );
+	return s.toString();
+    }
+
+    /** Merge metrics into their families
+     *  @param families the text of each family so far, by name
+     *  @param text the metrics to merge, in Prometheus text format
+     *  @param label a label to add to each sample, or null
+     *  The help and type of a family are kept from its first source.
+     */
+    private static void merge(
+	LinkedHashMap <String, StringBuilder> families,
+	String text, String label
+    ) {
+	HashSet <String> fresh = new HashSet <String> (); // new families
+	for (String line: text.split( "\n" )) {
+	    if (line.isEmpty()) continue;
+	    if (line.startsWith( "# " )) { // # HELP name ... or # TYPE name ...
+		String name = line.split( " ", 4 )[2];
+		if (!families.containsKey( name )) {
+		    families.put( name, new StringBuilder() );
+		    fresh.add( name );
+		}
+		if (fresh.contains( name )) {
+		    families.get( name ).append( line ).append( '\n' );
+		}
+		continue;
+	    }
+	    int brace = line.indexOf( '{' );
+	    int space = line.indexOf( ' ' );
+	    boolean labeled = (brace >= 0) && (brace < space);
+	    String name = line.substring( 0, labeled ? brace : space );
+	    StringBuilder f = families.get( name );
+	    if (f == null) {
+		f = new StringBuilder();
+		families.put( name, f );
+	    }
+	    if (label == null) {
+		f.append( line );
+	    } else if (labeled) {
+		f.append( line, 0, brace + 1 ).append( label ).append( ',' );
+		f.append( line, brace + 1, line.length() );
+	    } else {
+		f.append( name ).append( '{' ).append( label ).append( '}' );
+		f.append( line, space, line.length() );
+	    }
+	    f.append( '\n' );
+	}
+    }
+
+    /** @return the metrics of the JVM, in Prometheus text format
+     */
+    private static String jvm() {
+	StringBuilder s = new StringBuilder();
+	MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+	    .getHeapMemoryUsage();
+	metric( s, "jvm_heap_used_bytes", "gauge", "Heap in use",
+	    "" + heap.getUsed() );
+	metric( s, "jvm_heap_committed_bytes", "gauge", "Heap committed",
+	    "" + heap.getCommitted() );
+	metric( s, "jvm_heap_max_bytes", "gauge", "Maximum heap",
+	    "" + heap.getMax() );
+	long gcCount = 0;
+	long gcMillis = 0;
+	for (GarbageCollectorMXBean gc:
+	    ManagementFactory.getGarbageCollectorMXBeans()
+	) {
+	    gcCount = gcCount + Math.max( 0, gc.getCollectionCount() );
+	    gcMillis = gcMillis + Math.max( 0, gc.getCollectionTime() );
+	}
+	metric( s, "jvm_gc_collections_total", "counter",
+	    "Garbage collections since the start", "" + gcCount );
+	metric( s, "jvm_gc_seconds_total", "counter",
+	    "Time spent in garbage collection", "" + (gcMillis / 1000.0) );
+	return s.toString();
+    }
+
+    // format one metric, with its help and type
+    private static void metric(
+	StringBuilder s, String name, String type, String help, String value
+    ) {
+	s.append( "# HELP " ).append( name ).append( ' ' ).append( help );
+	s.append( "\n# TYPE " ).append( name ).append( ' ' ).append( type );
+	s.append( '\n' ).append( name ).append( ' ' ).append( value );
+	s.append( '\n' );
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+
+/**
+ * Live metrics of a running simulation, served over HTTP on localhost
+ * The metrics are in the Prometheus text exposition format, at /metrics.
+ * They are read without stopping the simulation, so they may be a little
+ * out of date or not quite consistent with each other, except for the
+ * counts of people in each state, which are all from the latest moment
+ * Counters published.  The server itself belongs to MetricsHub, which
+ * serves the metrics of every simulation in the program, each labelled
+ * with the worker number of its copy of this class.
+ * @author Thomas McDowell
+ * @version 12/18/2020
+ * Status: New code
+ * @see Simulator
+ * @see MetricsHub
+ */
+public class MetricsServer {
+    private MetricsServer(){} // prevent anyone from instantiating this class
+
+    // state of the rate computation, from one scrape to the next
+    private static long lastNanos = System.nanoTime();
+    private static long lastTriggered = 0;
+    private static double lastNow = 0.0;
+    private static long lastProgress = System.nanoTime(); // when now changed
+
+    // the worker number of this copy of the simulator, once it has one
+    private static int worker = -1;
+
+    /** Start serving metrics of this simulation
+     *  @param port the port on localhost to serve metrics from
+     *  Failure to start the server is a warning, not fatal, since the
+     *  simulation itself can go on without it.  The server started first
+     *  in the program serves all later simulations too, such as those of
+     *  other workers under JobServer, on its own port.
+     *  Not synchronized, since MetricsHub calls scrape() under no lock of
+     *  its own but scrape() takes the lock on this class.
+     */
+    public static void start( int port ) {
+	if (worker < 0) worker = MetricsHub.worker();
+	try {
+	    MetricsHub.open( port, worker, MetricsServer::scrape );
+	} catch ( IOException e ) {
+	    Error.warn( "metrics "+port+": can't serve, " + e.getMessage() );
+	    return;
+	}
+	int serving = MetricsHub.port();
+	if (serving != port) {
+	    Error.note( "metrics "+port+": already serving on "+serving );
+	}
+    }
+
+    /** Stop serving metrics of this simulation, if they are served
+     */
+    public static void stop() {
+	if (worker >= 0) MetricsHub.close( worker );
+    }
+
+    /** Take the current metrics
+     *  @return the metrics, in Prometheus text format
+     */
+    private static synchronized String scrape() {
+	StringBuilder s = new StringBuilder();
+
+	// simulation progress
+	long nanos = System.nanoTime();
+	long triggered = Simulator.triggered();
+	double now = Simulator.now();
+	double seconds = (nanos - lastNanos) / 1e9;
+	double rate = (seconds > 0) ? (triggered - lastTriggered) / seconds : 0;
+	if (now != lastNow) lastProgress = nanos;
+	lastNanos = nanos;
+	lastTriggered = triggered;
+	lastNow = now;
+
+	gauge( s, "epidemic_simulated_time_days",
+	    "Simulated time of the latest event", now / Simulator.day );
+	counter( s, "epidemic_events_total",
+	    "Events triggered since the start", triggered );
+	gauge( s, "epidemic_events_per_second",
+	    "Events triggered per second since the previous scrape", rate );
+	gauge( s, "epidemic_seconds_since_progress",
+	    "Seconds since simulated time last advanced",
+	    (nanos - lastProgress) / 1e9 );
+	gauge( s, "epidemic_event_set_depth",
+	    "Events waiting in the event set", Simulator.pending() );
+	gauge( s, "epidemic_event_set_stale",
+	    "Cancelled events waiting in the event set", Simulator.stale() );
+
+	// compartment counts, all from the same moment
+	Counters.View v = Counters.latest();
+	gauge( s, "epidemic_people_time_days",
+	    "Simulated time of the people counts", v.time / Simulator.day );
+	header( s, "epidemic_people", "gauge", "People in each state" );
+	for (Person.States state: Person.States.values()) {
+	    people( s, state.toString(), v.get( state ) );
+	}
+
+	return s.toString();
+    }
+
+    // tools for formatting metrics
+
+    private static void header(
+	StringBuilder s, String name, String type, String help
+    ) {
+	s.append( "# HELP " ).append( name ).append( ' ' ).append( help );
+	s.append( "\n# TYPE " ).append( name ).append( ' ' ).append( type );
+	s.append( '\n' );
+    }
+
+    private static void gauge(
+	StringBuilder s, String name, String help, double value
+    ) {
+	header( s, name, "gauge", help );
+	s.append( name ).append( ' ' ).append( value ).append( '\n' );
+    }
+
+    private static void counter(
+	StringBuilder s, String name, String help, long value
+    ) {
+	header( s, name, "counter", help );
+	s.append( name ).append( ' ' ).append( value ).append( '\n' );
+    }
+
+    private static void people( StringBuilder s, String state, int count ) {
+	s.append( "epidemic_people{state=\"" ).append( state ).append( "\"} " );
+	s.append( count ).append( '\n' );
+    }
+}
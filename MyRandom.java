@@ -5,10 +5,18 @@ import java.util.Random;
  * Singleton wrapper for Java's Random class
  * @author Tom McDowell
  * @author Douglas Jones
- * @version 11/2/2020
+ * @version 12/14/2020 -- unsynchronized generator, ziggurat normals
  * Status: Relatively stable code
+ * @see Distribution
  */
 public class MyRandom extends Random {
+    // Random's generator, redone here without its atomic compare-and-set
+    // the constants are those of java.util.Random, so seeds mean the same
+    private static final long multiplier = 0x5DEECE66DL;
+    private static final long addend = 0xBL;
+    private static final long mask = (1L << 48) - 1;
+    private long state; // no initializer! Random's constructor sets it
+
     private MyRandom() {
 	// uncomment exactly one of the following!
 	super();                // let Java pick a random seed
@@ -19,6 +27,57 @@ public class MyRandom extends Random {
      */
     static final MyRandom stream = new MyRandom();
 
+    // while split, each thread draws from a stream of its own instead
+    private static boolean split = false;
+    private static final ThreadLocal<MyRandom> local =
+	ThreadLocal.withInitial( MyRandom::new );
+
+    // while antithetic, the stream gives the complement of every draw
+    private static boolean antithetic = false;
+    private boolean plain = false; // true to draw the ordinary bits anyway
+
+    /** Make the stream antithetic, or not
+     *  @param on true to make it so
+     *  While antithetic, every number drawn has all its bits inverted,
+     *  so each uniform number u becomes 1 - u, and each normal x becomes
+     *  exactly -x; a run from a seed then mirrors the ordinary run from
+     *  that seed, for use as its antithetic pair by Ensemble.
+     */
+    static void antithetic( boolean on ) {
+	antithetic = on;
+    }
+
+    /** Split the stream, or join it again
+     *  @param on true to split it
+     *  While split, whatever any thread draws from the stream comes from
+     *  a stream of that thread's own, seeded by seedLocal(); used only
+     *  by Simulator, to run events in parallel.
+     */
+    static void split( boolean on ) {
+	split = on;
+    }
+
+    /** @return true if the stream is split
+     */
+    static boolean isSplit() {
+	return split;
+    }
+
+    /** Seed the stream of this thread, for use while split
+     *  @param seed the seed
+     */
+    static void seedLocal( long seed ) {
+	local.get().state = (seed ^ multiplier) & mask;
+    }
+
+    /** @return a stream of its own, apart from the one users see
+     *  For those who must not change what the stream would draw, as
+     *  Lockstep must not; seed it with setSeed() to repeat it.
+     */
+    static MyRandom apart() {
+	return new MyRandom();
+    }
+
     /** an alternate way to expose users to the stream
      *  @return handle on the stream
      */
@@ -26,6 +85,40 @@ public class MyRandom extends Random {
 	return stream;
     }
 
+    /** set the seed of this stream
+     *  @param seed the new seed
+     *  called from the Random constructor, so it must not use any field
+     *  that has an initializer
+     */
+    public void setSeed( long seed ) {
+	state = (seed ^ multiplier) & mask;
+	super.setSeed( seed ); // forget any cached nextGaussian()
+    }
+
+    /** @return the current state of this stream, for Snapshot
+     */
+    long state() {
+	return state;
+    }
+
+    /** Return this stream to a state it was in before
+     *  @param s a value returned by state()
+     */
+    void setState( long s ) {
+	state = s;
+    }
+
+    /** the underlying generator used by all the other methods
+     *  @param bits the number of random bits wanted
+     *  @return an int holding that many random bits
+     */
+    protected int next( int bits ) {
+	if (split && (this == stream)) return local.get().next( bits );
+	state = (state * multiplier + addend) & mask;
+	int r = (int)(state >>> (48 - bits));
+	return (antithetic && !plain) ? (~r & (int)((1L << bits) - 1)) : r;
+    }
+
     /** get the next exponentially distributed pseudo-random number
      *  @param mean value of the distribution
      *  @return the next number drawn from this distribution
@@ -38,9 +131,86 @@ public class MyRandom extends Random {
      *  @param median value of the distribution
      *  @param scatter of the distribution
      *  @return the next number drawn from this distribution
+     *  where the same distribution is used repeatedly, see Distribution
      */
     public double nextLogNormal( double median, double scatter ) {
 	double sigma = Math.log( (scatter + median) / median );
-	return Math.exp( sigma * this.nextGaussian() ) * median;
+	return Math.exp( sigma * this.nextNormal() ) * median;
+    }
+
+    // tables for the ziggurat method, see George Marsaglia and Wai Wan Tsang,
+    // The Ziggurat Method for Generating Random Variables, 2000
+    private static final double zigR = 3.442619855899; // start of the tail
+    private static final double zigV = 9.91256303526217e-3; // area of a layer
+    private static final long[] zigK = new long[128];   // acceptance limits
+    private static final double[] zigW = new double[128]; // layer widths
+    private static final double[] zigF = new double[128]; // density at layers
+    static {
+	final double m = 2147483648.0; // 2 to the 31st
+	double d = zigR;
+	double t = zigR;
+	double q = zigV / Math.exp( -0.5 * d * d );
+
+	zigK[0] = (long)((d / q) * m);
+	zigK[1] = 0;
+	zigW[0] = q / m;
+	zigW[127] = d / m;
+	zigF[0] = 1.0;
+	zigF[127] = Math.exp( -0.5 * d * d );
+	for (int i = 126; i >= 1; i--) {
+	    d = Math.sqrt( -2.0 * Math.log( zigV / d + Math.exp( -0.5*d*d ) ) );
+	    zigK[i + 1] = (long)((d / t) * m);
+	    t = d;
+	    zigF[i] = Math.exp( -0.5 * d * d );
+	    zigW[i] = d / m;
+	}
+    }
+
+    /** get the next normally distributed pseudo-random number
+     *  @return the next number drawn from the distribution N(0,1)
+     *  This uses the ziggurat method, which is far faster than the polar
+     *  method of nextGaussian() because it usually needs just one draw.
+     *  While antithetic, this is the negation of the ordinary draw, since
+     *  the ziggurat over inverted bits would pick another layer, and
+     *  reject other draws, giving a number unrelated to the ordinary one.
+     */
+    public double nextNormal() {
+	if (split && (this == stream)) return local.get().nextNormal();
+	if (!antithetic) return ziggurat();
+	plain = true;
+	try {
+	    return -ziggurat();
+	} finally {
+	    plain = false;
+	}
+    }
+
+    /** @return the next number drawn from N(0,1) by the ziggurat method
+     */
+    private double ziggurat() {
+	for (;;) {
+	    long bits = this.nextLong();
+	    int hz = (int)(bits >> 32); // signed, picks the point in the layer
+	    int iz = (int)bits & 127;   // independent bits pick the layer
+	    if (Math.abs( (long)hz ) < zigK[iz]) {
+		return hz * zigW[iz]; // inside the layer, the common case
+	    }
+
+	    if (iz == 0) { // the base layer, sample from the tail
+		double x;
+		double y;
+		do {
+		    x = -Math.log( 1.0 - this.nextDouble() ) / zigR;
+		    y = -Math.log( 1.0 - this.nextDouble() );
+		} while (y + y < x * x);
+		return (hz > 0) ? zigR + x : -zigR - x;
+	    }
+
+	    // in the wedge at the edge of the layer
+	    double x = hz * zigW[iz];
+	    double f = zigF[iz] + this.nextDouble() * (zigF[iz - 1] - zigF[iz]);
+	    if (f < Math.exp( -0.5 * x * x )) return x;
+	    // otherwise reject and try again
+	}
     }
 }
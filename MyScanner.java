@@ -41,6 +41,13 @@ public class MyScanner {
 	self = new Scanner( f );
     }
 
+    /** Construct a MyScanner to read from a string
+     *  @param s the text to read
+     */
+    public MyScanner( String s ) {
+	self = new Scanner( s );
+    }
+
     // methods we wish could inherit from Scanner but can't beause it's final
     // BUG -- to properly handle end of line delimiters, these need redefinition
     public boolean hasNext( String s ) { return self.hasNext( s ); }
@@ -1,6 +1,10 @@
+import java.io.PrintStream;
+import java.io.Serializable;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.ListIterator;
 
 /**
  * People occupy places
@@ -11,7 +15,8 @@ import java.util.LinkedList;
  * @see Place
  * @see Employee
  */
-public class Person {
+public class Person implements Serializable {
+    private static final long serialVersionUID = 1L;
     // private members needed for instances
 
     protected enum States {
@@ -21,34 +26,62 @@ public class Person {
 
     // attributes describing progression of infection
     // BUG --  These should come from model description file, not be hard coded
-    double latentMedT = 2 * Simulator.day;
-    double latentScatT = 1 * Simulator.day;
-    double bedriddenProb = 0.7;
-    double infectRecMedT = 1 * Simulator.week;
-    double infectRecScatT = 6 * Simulator.day;
-    double infectBedMedT = 3 * Simulator.day;
-    double infectBedScatT = 5 * Simulator.day;
-    double deathProb = 0.2;
-    double bedRecMedT = 2 * Simulator.week;
-    double bedRecScatT = 1 * Simulator.week;
-    double bedDeadMedT = 1.5 * Simulator.week;
-    double bedDeadScatT = 1 * Simulator.week;
-
-    // static counts of infection progress
-    static int numUninfected = 0;
-    static int numLatent = 0;
-    static int numInfectious = 0;
-    static int numBedridden = 0;
-    static int numRecovered = 0;
-    static int numDead = 0;
+    static final double latentMedT = 2 * Simulator.day;
+    static final double latentScatT = 1 * Simulator.day;
+    static final double bedriddenProb = 0.7;
+    static final double infectRecMedT = 1 * Simulator.week;
+    static final double infectRecScatT = 6 * Simulator.day;
+    static final double infectBedMedT = 3 * Simulator.day;
+    static final double infectBedScatT = 5 * Simulator.day;
+    static final double deathProb = 0.2;
+    static final double bedRecMedT = 2 * Simulator.week;
+    static final double bedRecScatT = 1 * Simulator.week;
+    static final double bedDeadMedT = 1.5 * Simulator.week;
+    static final double bedDeadScatT = 1 * Simulator.week;
+
+    // the distributions of the above, set up once for everyone
+    private static final Distribution latentT =
+	new Distribution.LogNormal( latentMedT, latentScatT );
+    private static final Distribution.Bernoulli bedridden =
+	new Distribution.Bernoulli( bedriddenProb );
+    private static final Distribution infectRecT = // BUG -- infectRecScatT?
+	new Distribution.LogNormal( infectRecMedT, infectBedScatT );
+    private static final Distribution infectBedT =
+	new Distribution.LogNormal( infectBedMedT, infectBedScatT );
+    private static final Distribution.Bernoulli death =
+	new Distribution.Bernoulli( deathProb );
+    private static final Distribution bedRecT =
+	new Distribution.LogNormal( bedRecMedT, bedRecScatT );
+    private static final Distribution bedDeadT =
+	new Distribution.LogNormal( bedDeadMedT, bedDeadScatT );
+
+    // travel times, drawn so often that they are drawn in batches
+    static final Distribution travelT = new Distribution.Batched(
+	new Distribution.LogNormal(
+	    20 * Simulator.minute, // median travel time
+	    3 * Simulator.minute   // scatter in travel time
+	),
+	1024
+    );
 
     // fixed attributes of each instance
-    final HomePlace home;  // all people have homes
+    // references to places and events are transient, so that serializing
+    // a person never wanders off through the whole community; Snapshot
+    // saves and restores them separately
+    transient HomePlace home;      // all people have homes, never changed
     public final String name;      // all people have names
+    int id;                // dense numbering of all people, from zero
+    final int serial;      // numbering that compaction never changes
 
     // instance variables
-    protected Place place;         // when not in transit, where the person is
-    public States infectionState;  // all people have infection states
+    protected transient Place place; // when not in transit, where they are
+    States infectionState;         // all people have infection states
+
+    // while AgentStore is open, its record of each person holds their
+    // home, place and infection state instead of the fields above, which
+    // are only brought up to date when it closes or a snapshot is taken;
+    // use home(), place() and state(), and setPlace() or changeState()
+    transient Simulator.Event trip = null; // pending TravelHome or TravelEvent
 
     // the collection of all instances
     private static final LinkedList <Person> allPeople =
@@ -62,21 +95,55 @@ public class Person {
      */
     public Person( HomePlace h ) {
 	name = super.toString();
+	id = allPeople.size();
+	serial = id;
 	home = h;
 	place = h; // all people start out at home
 	infectionState = States.uninfected;
-	numUninfected = numUninfected + 1;
+	Counters.add( States.uninfected, 1 );
 	h.addResident( this );
 
 	allPeople.add( this ); // this is the only place items are added!
     }
 
+    /** Constructor for stand-ins for people from elsewhere
+     *  Stand-ins have no home, are not part of the population and are
+     *  not counted; they are used only by Shard.
+     */
+    Person() {
+	name = super.toString();
+	id = -1;
+	serial = -1;
+	infectionState = States.uninfected;
+    }
+
+    /** @return the infection state of this person
+     */
+    public States state() {
+	if (AgentStore.open && (serial >= 0)) return AgentStore.state( this );
+	return infectionState;
+    }
+
+    /** @return the home of this person
+     */
+    HomePlace home() {
+	if (AgentStore.open && (serial >= 0)) return AgentStore.home( this );
+	return home;
+    }
+
+    /** @return where this person is, or null while in transit
+     */
+    Place place() {
+	if (AgentStore.open && (serial >= 0)) return AgentStore.place( this );
+	return place;
+    }
+
     /** Predicate to test person for infectiousness
      *  @return true if the person can transmit infection
      */
     public boolean isInfectious() {
-	return (infectionState == States.infectious)
-	    || (infectionState == States.bedridden);
+	States s = state();
+	return (s == States.infectious) || (s == States.bedridden);
     }
 
     /** Primarily for debugging
@@ -86,6 +153,41 @@ public class Person {
 	return name ;// DEBUG  + " " + home.name + " " + infectionState;
     }
 
+    /** Forget the entire population, so a new simulation can start
+     */
+    static void reset() {
+	allPeople.clear();
+	Counters.reset();
+	((Distribution.Batched)travelT).reset(); // drawn before any seed
+    }
+
+    /** Put a person restored from a snapshot back into the population
+     *  @param p the person, with home and place already restored
+     *  Called only by Snapshot, in the original order of the population.
+     */
+    static void adopt( Person p ) {
+	allPeople.add( p );
+    }
+
+    /** Put the population in a given order
+     *  @param order everyone, in the order wanted, with nulls skipped
+     *  Called only by Epidemic, to put a loaded community back in the
+     *  order of the population it was saved from.
+     */
+    static void arrange( Person[] order ) {
+	allPeople.clear();
+	for (Person p: order) if (p != null) allPeople.add( p );
+    }
+
+    /** Renumber the population, and put it in order of the new ids
+     *  @param newId the new id of each person, by old id
+     *  Called only by Locality, between events; serial numbers stay.
+     */
+    static void renumber( int[] newId ) {
+	for (Person p: allPeople) p.id = newId[p.id];
+	allPeople.sort( Comparator.comparingInt( (Person p)-> p.id ) );
+    }
+
     /** Shuffle the population
      *  This allows correlations between attributes of people to be broken
      */
@@ -100,24 +202,193 @@ public class Person {
 	return allPeople.iterator();
     }
 
+    // compaction of the dead out of the population
+
+    // rough sizes, in bytes, of what compaction frees
+    // assuming compressed references as in most 64-bit JVMs
+    private static final int personBytes = 48 + 56; // object, plus its name
+    private static final int entryBytes = 24;       // one LinkedList node
+
+    /** Remove this person from all directories other than allPeople
+     *  @return the number of directory entries removed
+     *  Called only when compacting away the dead
+     */
+    int forget() {
+	home().removeResident( this );
+	return 1;
+    }
+
+    /** Compact the dead out of the population
+     *  @param t the current time
+     *  The dead are removed from allPeople and from the directories of
+     *  residents and employees, and the survivors are renumbered so
+     *  that ids stay dense, with their relative order preserved.
+     *  Called only between events, never from inside one.
+     */
+    public static void compact( double t ) {
+	int entries = 0; // directory entries removed
+	int dead = 0;    // people removed
+	boolean[] survivor = new boolean[allPeople.size()];
+	for (ListIterator<Person> i = allPeople.listIterator(); i.hasNext();) {
+	    Person p = i.next();
+	    if (p.state() == States.dead) {
+		i.remove();
+		entries = entries + 1 + p.forget();
+		dead = dead + 1;
+	    } else {
+		survivor[p.id] = true;
+	    }
+	}
+	if (dead == 0) return;
+	entries = entries + PlaceType.removeDead();
+	WorkPlace.reset(); // workplaces may now be out of order by size
+
+	// renumber, so each survivor's new id is the count of survivors
+	// with smaller old ids
+	int[] newId = new int[survivor.length];
+	int next = 0;
+	for (int i = 0; i < survivor.length; i++) {
+	    newId[i] = next;
+	    if (survivor[i]) next = next + 1;
+	}
+	for (Person p: allPeople) p.id = newId[p.id];
+
+	// the dead had their events cancelled, now get rid of them
+	int events = Simulator.stale();
+	Simulator.purge();
+
+	long bytes = (long)dead * personBytes + (long)entries * entryBytes;
+	Error.note(
+	    "at " + t + ", compacted " + dead + " dead"
+	    + ", " + entries + " directory entries"
+	    + ", " + events + " stale events"
+	    + ", about " + bytes + " bytes reclaimed"
+	);
+    }
+
+    /** Schedule periodic compaction of the dead
+     *  @param t the time of the first compaction
+     *  @param interval the time between compactions
+     */
+    public static void compactEvery( double t, double interval ) {
+	class Compaction extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
+	    Compaction() { super( t ); }
+	    public void trigger() {
+		compact( this.time );
+		compactEvery( this.time + interval, interval );
+	    }
+	}
+	Simulator.schedule( new Compaction() );
+    }
+
     // simulation methods relating to infection process
 
+    /** One step in the course of the disease: the next state, and when
+     */
+    static final class Step {
+	final States to;    // the next state
+	final double delay; // how long until then
+
+	Step( States to, double delay ) {
+	    this.to = to;
+	    this.delay = delay;
+	}
+    }
+
+    /** Draw the next step in the course of the disease
+     *  @param from the state, latent, infectious or bedridden
+     *  @param r the stream to draw from
+     *  @return the next state and the delay until then, or null if
+     *  nothing comes after from
+     *  The one place the course is drawn, for people, for those homes
+     *  only count as stayers, and for the variants of Lockstep.
+     */
+    static Step step( States from, MyRandom r ) {
+	switch (from) {
+	case latent:
+	    return new Step( States.infectious, latentT.next( r ) );
+	case infectious:
+	    // only draw the delay for the outcome that actually happens
+	    if (bedridden.happens( r )) {
+		return new Step( States.bedridden, infectBedT.next( r ) );
+	    }
+	    return new Step( States.recovered, infectRecT.next( r ) );
+	case bedridden:
+	    if (death.happens( r )) {
+		return new Step( States.dead, bedDeadT.next( r ) );
+	    }
+	    return new Step( States.recovered, bedRecT.next( r ) );
+	default: // uninfected, recovered or dead
+	    return null;
+	}
+    }
+
+    /** Move a person to a new infection state, keeping count
+     *  @param s the new state
+     *  @param t the time of the change
+     *  All changes of infection state go through here, so triggers
+     *  watching the counts see every change as it happens.
+     */
+    private void changeState( States s, double t ) {
+	States old = state();
+	if (AgentStore.open && (serial >= 0)) {
+	    AgentStore.state( this, s );
+	} else {
+	    infectionState = s;
+	}
+	Counters.add( old, -1 );
+	Counters.add( s, 1 );
+	Trigger.counted( old, t );
+	Trigger.counted( s, t );
+	if (Shard.active) Shard.changed( this, s, t );
+	if (Lockstep.on) Lockstep.changed( this, old, s, t );
+    }
+
+    /** Note where this person is
+     *  @param p the place, or null while in transit
+     */
+    void setPlace( Place p ) {
+	if (AgentStore.open && (serial >= 0)) {
+	    AgentStore.moved( this, p );
+	} else {
+	    place = p;
+	}
+    }
+
+    /** Skip ahead to the end if the epidemic is over
+     *  Once no one is latent, infectious or bedridden, no one can ever be
+     *  again, so the counts are frozen and only the reports remain.
+     *  Only call this between events:  the last to recover may still
+     *  infect someone on the way out, in the same event.
+     */
+    static void checkQuiet() {
+	if (Shard.active) return; // infections may yet come from elsewhere
+	if ((Counters.current( States.latent ) == 0)
+	&&  (Counters.current( States.infectious ) == 0)
+	&&  (Counters.current( States.bedridden ) == 0)
+	&&  !Place.anyInfectious()
+	&&  !(Lockstep.on && Lockstep.active())) Simulator.quiesce();
+    }
+
     /** Infect a person
      *  @param t the time at which the person is infected (latent)
      *  called when circumstances call for a person to become infected
+     *  @return true if this infected them, false if they already were
      */
-    public void infect( double t ) {
-	if (infectionState == States.uninfected) {
+    public boolean infect( double t ) {
+	if (state() == States.uninfected) {
 	    // infecting an already infected person has no effect
 
-	    double delay = rand.nextLogNormal( latentMedT, latentScatT );
+	    Step next = step( States.latent, rand );
 
-	    numUninfected = numUninfected - 1;
-	    infectionState = States.latent;
-	    numLatent = numLatent + 1;
+	    changeState( States.latent, t );
+	    if (Lockstep.drawing) Lockstep.drawn( this, States.latent, next );
 
-	    Simulator.schedule( new BecomeInfectious( t, delay, this ) );
+	    Simulator.schedule( new BecomeInfectious( t, next.delay, this ) );
+	    return true;
 	}
+	return false;
     }
 
     /** An infected but latent person becomes infectous
@@ -125,20 +396,17 @@ public class Person {
      *  @param t the time at which the person becomes infectious
      */
     void beInfectious( double t ) {
-	numLatent = numLatent - 1;
-	infectionState = States.infectious;
-	numInfectious = numInfectious + 1;
-
-	double recDelay = rand.nextLogNormal( infectRecMedT, infectBedScatT );
-	double bedDelay = rand.nextLogNormal( infectBedMedT, infectBedScatT );
-
+	changeState( States.infectious, t );
 
-	if (place != null) place.oneMoreInfectious( t );
+	Place where = place();
+	if (where != null) where.oneMoreInfectious( t );
 
-	if ( rand.nextFloat() > bedriddenProb ) {
-	    Simulator.schedule( new BecomeRecoveredInf( t, recDelay, this ) );
+	Step next = step( States.infectious, rand );
+	if (Lockstep.drawing) Lockstep.drawn( this, States.infectious, next );
+	if (next.to == States.bedridden) {
+	    Simulator.schedule( new BecomeBedridden( t, next.delay, this ) );
 	} else {
-	    Simulator.schedule( new BecomeBedridden( t, bedDelay, this ) );
+	    Simulator.schedule( new BecomeRecoveredInf( t, next.delay, this ) );
 	}
     }
 
@@ -147,20 +415,20 @@ public class Person {
      *  @param t the time the person becomes bedridden
      */
     void beBedridden( double t ) {
-	numInfectious = numInfectious - 1;
-	infectionState = States.bedridden;
-	numBedridden = numBedridden + 1;
-
-	double recDelay = rand.nextLogNormal( bedRecMedT, bedRecScatT );
-	double deadDelay = rand.nextLogNormal( bedDeadMedT, bedDeadScatT );
+	changeState( States.bedridden, t );
+	if (Colocation.on) Colocation.traced( this, t ); // before going home
 
 	// if in a place (not in transit) that is not home, go home now!
-	if ((place != null) && (place != home)) goHome( t );
-
-	if ( rand.nextFloat() > deathProb ) {
-	    Simulator.schedule( new BecomeRecoveredBed( t, recDelay, this) );
+	Place where = place();
+	if ((where != null) && (where != home())) goHome( t );
+	cancelCommute(); // and don't plan on going anywhere else
+
+	Step next = step( States.bedridden, rand );
+	if (Lockstep.drawing) Lockstep.drawn( this, States.bedridden, next );
+	if (next.to == States.dead) {
+	    Simulator.schedule( new BecomeDead( t, next.delay, this ) );
 	} else {
-	    Simulator.schedule( new BecomeDead( t, deadDelay, this ) );
+	    Simulator.schedule( new BecomeRecoveredBed( t, next.delay, this ) );
 	}
     }
 
@@ -169,15 +437,10 @@ public class Person {
      *  @param t the time the person recovers
      */
     void beRecovered( double t ) {
-	if (infectionState == States.infectious) {
-	    numInfectious = numInfectious - 1;
-	} else {
-	    numBedridden = numBedridden - 1;
-	}
-	infectionState = States.recovered;
-	numRecovered = numRecovered + 1;
+	changeState( States.recovered, t );
 
-	if (place != null) place.oneLessInfectious( t );
+	Place where = place();
+	if (where != null) where.oneLessInfectious( t );
     }
 
     /** A bedridden person dies
@@ -185,18 +448,80 @@ public class Person {
      *  @param t the time the person dies
      */
     void beDead( double t ) {
-	numBedridden = numBedridden - 1;
-	infectionState = States.dead; // needed to prevent resurrection
-	numDead = numDead + 1;
+	// if the person died in a place, make them leave it, while still
+	// bedridden, so the place no longer counts them as infectious
+	Place where = place();
+	if (where != null) where.depart( this, t );
+	setPlace( null );
 
-	// if the person died in a place, make them leave it!
-	if (place != null) place.depart( this, t );
+	changeState( States.dead, t ); // needed to prevent resurrection
+
+	// the dead go nowhere, so forget any travel plans
+	if (trip != null) trip.cancel();
+	cancelCommute();
+
+	// stays in the directories of residents and perhaps employees
+	// until compact() is called, if ever
+    }
 
-	// BUG: leaves them in the directory of residents and perhaps employees
+    // residents who never leave home, counted by their homes instead of
+    // being people of their own; see HomePlace.addStayer()
+
+    /** Infect one of the uninfected residents a home counts
+     *  @param h the home
+     *  @param t the time of infection
+     *  The course of the disease is the same as for people, with the
+     *  same delays drawn in the same order, but it changes counts.
+     */
+    static void infectStayer( HomePlace h, double t ) {
+	h.changeStayer( States.uninfected, States.latent, t );
+	Step next = step( States.latent, rand );
+	Simulator.schedule( new StayerChange(
+	    t + next.delay, h, States.latent, next.to
+	) );
+    }
+
+    /** Move one of the residents a home counts on in the disease
+     *  @param h the home
+     *  @param from the state they were in
+     *  @param to the state they are now in
+     *  @param t the time of the change
+     *  Called only by StayerChange, as beInfectious() and the rest are.
+     */
+    static void progressStayer(
+	HomePlace h, States from, States to, double t
+    ) {
+	h.changeStayer( from, to, t );
+	if (to == States.infectious) h.oneMoreInfectious( t );
+	if ((to == States.recovered) || (to == States.dead)) {
+	    h.oneLessInfectious( t ); // infectious or bedridden until now
+	}
+	Step next = step( to, rand );
+	if (next != null) Simulator.schedule( new StayerChange(
+	    t + next.delay, h, to, next.to
+	) );
     }
 
     // simulation methods relating to daily reporting
 
+    /** where the daily reports go, normally System.out
+     */
+    static PrintStream reports = System.out;
+
+    /** Format a daily report
+     *  @param v the counts to report
+     *  @return the text of the report
+     */
+    static String format( Counters.View v ) {
+	return "at " + v.time
+	    + ", un = " + v.get( States.uninfected )
+	    + ", lat = " + v.get( States.latent )
+	    + ", inf = " + v.get( States.infectious )
+	    + ", bed = " + v.get( States.bedridden )
+	    + ", rec = " + v.get( States.recovered )
+	    + ", dead = " + v.get( States.dead );
+    }
+
     /** Make the daily midnight report
      *  @param t the current time
      */
@@ -214,16 +539,20 @@ public class Person {
      *  scheduled
      */
     void arriveAt( double t, Place p ) {
-	if ((infectionState == States.bedridden) && (p != home)) {
+	States s = state();
+	if ((s == States.bedridden) && (p != home())) {
 	    // go straight home if you arrive at work while sick
 	    goHome( t );
 
-	} else if (infectionState == States.dead) { // died on the way to work
+	} else if (s == States.dead) { // died on the way to work
 	    // allow this person to be forgotten
 
+	} else if (p.closed()) { // it closed while on the way there
+	    goHome( t );
+
 	} else { // only really arrive if not sick
 	    p.arrive( this, t );
-	    this.place = p;
+	    setPlace( p );
 	    //System.out.println( this.name + " arrived at "
 		//	                  + p.name + " at time " + t );
 	}
@@ -237,20 +566,27 @@ public class Person {
      *  and it could compute the travel time
      */
     public void travelTo( Place p, double t ) {
+	if (Shard.active && Shard.travel( this, p, t )) return; // elsewhere
 
-	Simulator.schedule( new TravelEvent( t, this, p ) );
+	trip = Simulator.schedule( new TravelEvent( t, this, p ) );
     }
 
     /** Simulate the trip home from wherever
      * @param t time of departure
+     * Any trip already planned is superseded by the trip home.
      */
     public void goHome( double t ) {
-	double travelTime = rand.nextLogNormal(
-	    20 * Simulator.minute, // mean travel time
-	    3 * Simulator.minute   // scatter in travel time
-	);
+	double travelTime = travelT.next();
 
-	Simulator.schedule( new TravelHome( t, travelTime, this ) );
+	if (trip != null) trip.cancel();
+	trip = Simulator.schedule( new TravelHome( t, travelTime, this ) );
+    }
+
+    /** Cancel any regularly scheduled trip away from home
+     *  Called when a person becomes bedridden or dies;
+     *  ordinary people have no such trips, but subclasses may.
+     */
+    void cancelCommute() {
     }
 }
 
@@ -261,6 +597,7 @@ public class Person {
  *  @see Person
  */
 class BecomeInfectious extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person p;
     /** Event constructor
      *  @param t the time the person is infected
@@ -283,6 +620,7 @@ class BecomeInfectious extends Simulator.Event {
  *  @see Person
  */
 class BecomeRecoveredInf extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person p;
     /** Event constructor
      *  @param t the time the person becomes infectious
@@ -305,6 +643,7 @@ class BecomeRecoveredInf extends Simulator.Event {
  *  @see Person
  */
 class BecomeBedridden extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person p;
     /** Event constructor
      *  @param t the time the person becomes infectious
@@ -325,6 +664,7 @@ class BecomeBedridden extends Simulator.Event {
  *  @see Person
  */
 class BecomeRecoveredBed extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person p;
     /** Event constructor
      *  @param t the time the person becomes bedridden
@@ -347,6 +687,7 @@ class BecomeRecoveredBed extends Simulator.Event {
  *  @see Person
  */
 class BecomeDead extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person p;
     /** Event constructor
      *  @param t the time the person becomes bedridden
@@ -362,6 +703,34 @@ class BecomeDead extends Simulator.Event {
     public void trigger() { p.beDead( this.time ); }
 }
 
+/** Event where a resident a home counts moves on in the disease
+ *  @author Thomas McDowell
+ *  @version 1/23/2021
+ *  @see Person
+ *  @see HomePlace
+ */
+class StayerChange extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
+    final HomePlace home;
+    final Person.States from;
+    final Person.States to;
+    /** Event constructor
+     *  @param t the time of the change
+     *  @param home the home of the resident
+     *  @param from the state the resident is in
+     *  @param to the state the resident moves on to
+     */
+    StayerChange(
+	double t, HomePlace home, Person.States from, Person.States to
+    ) {
+	super( t );
+	this.home = home;
+	this.from = from;
+	this.to = to;
+    }
+    public void trigger() { Person.progressStayer( home, from, to, time ); }
+}
+
 /** Event where a person travels to a place
  *  @author Thomas McDowell
  *  @version 12/7/2020
@@ -370,6 +739,7 @@ class BecomeDead extends Simulator.Event {
  *  @see Place
  */
 class TravelEvent extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person person;
     Place place;
     /** Event constructor
@@ -382,11 +752,17 @@ class TravelEvent extends Simulator.Event {
         this.person = person;
 	this.place = place;
     }
+    /** @return the destination, the only place the arrival changes
+     */
+    public Object group() {
+	return place;
+    }
     /** trigger() sets a persons place to null and makes them arrive
      *  at their destination
      */
     public void trigger() {
-        this.person.place = null;
+	this.person.trip = null;
+	this.person.setPlace( null );
         this.person.arriveAt( this.time, this.place );
     }
 }
@@ -400,6 +776,7 @@ class TravelEvent extends Simulator.Event {
  *  @see HomePlace
  */
 class TravelHome extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     Person person;
     double travelTime;
     /** Event constructor
@@ -411,14 +788,21 @@ class TravelHome extends Simulator.Event {
         super( t );
         this.person = person;
     }
+    /** @return the place departed from, or null if in transit
+     */
+    public Object group() {
+	return person.place();
+    }
     /** trigger() makes a person travel to their HomePlace
      */
     public void trigger() {
         // required due to case of arriving at work after falling ill
-        if (this.person.place != null) {
-	    this.person.place.depart( this.person, this.time );
+	Place from = this.person.place();
+	if (from != null) {
+	    from.depart( this.person, this.time );
+	    this.person.setPlace( null ); // nowhere until arriving
 	}
-        this.person.travelTo( this.person.home, this.time + this.travelTime );
+	this.person.travelTo( this.person.home(), this.time + this.travelTime );
     }
 }
 
@@ -429,6 +813,7 @@ class TravelHome extends Simulator.Event {
  *  @see Person
  */
 class ReportEvent extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
     /** Event constructor
      *  @param t the time the daily reports are made
      */
@@ -438,17 +823,21 @@ class ReportEvent extends Simulator.Event {
     /** trigger() prints out the simulation report and schedules the next one
      */
     public void trigger() {
-        System.out.println(
-            "at " + this.time
-            + ", un = " + Person.numUninfected
-            + ", lat = " + Person.numLatent
-            + ", inf = " + Person.numInfectious
-            + ", bed = " + Person.numBedridden
-            + ", rec = " + Person.numRecovered
-            + ", dead = " + Person.numDead
-                );
+	Counters.View v = Counters.publish( this.time );
+	Person.reports.println( Person.format( v ) );
+	Person.checkQuiet();
+	if (AgentStore.open) AgentStore.time( this.time );
+	ResultCache.report( v );
+	if (Sketches.on) Sketches.report( this.time ); // after, as cached
+	if (Colocation.on) Colocation.report( this.time );
+	if (Lockstep.on) Lockstep.report( this.time );
+	if (Results.streaming) Results.daily( v );
 
         Person.report( this.time + Simulator.day );
 
             }
+
+    public boolean timekeeping() {
+	return true;
+    }
 }
@@ -1,4 +1,8 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.lang.Math;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -11,23 +15,37 @@ import java.util.LinkedList;
  * @see HomePlace
  * @see WorkPlace
  */
-public abstract class Place {
+public abstract class Place implements Serializable {
+    private static final long serialVersionUID = 1L;
     // invariant attributes of each place
     public final String name;
+    int id;                          // dense numbering of all places
     protected double transmissivity; // how infectious is this place
 				     // initialized by subclass!
 
     // dynamic attributes of each place
-    protected final LinkedList<Person> occupants = new LinkedList<> ();
-    private int infectiousCount = 0; // number of infected occupants;
+    boolean closed = false;          // set by policies that close places
+    // transient, see Person; Snapshot saves and restores occupants
+    protected transient LinkedList<Person> occupants = new LinkedList<> ();
+    int infectiousCount = 0; // number of infected occupants;
     double lastCheck = 0.0;  // time of last check on infectiousness
 
+    // while AgentStore is open, its record of each place holds whether it
+    // is closed, how many there are infectious and its transmissivity
+    // instead of the fields above, as for Person; use the methods below
+
     // contructor (effectively protected
     Place() {
 	name = super.toString();
+	id = allPlaces.size();
 	allPlaces.add( this );
     }
 
+    /** Allow outsiders to see who belongs to this place
+     *  @return the people who belong here, whether here now or not
+     */
+    abstract Iterable <? extends Person> members();
+
     // manage the infectiousness of this place
 
     // need a source of random numbers
@@ -37,10 +55,10 @@ public abstract class Place {
      *  @param time, the time of the change
      *  called just before any any change to the population or infection count
      */
-    private void whoToInfect( double time ) {
+    void whoToInfect( double time ) {
 	// note that transmissivities are per hour, so convert time to hours
 	double interval = (time - lastCheck) / Simulator.hour;
-	double pInfection = transmissivity * infectiousCount * interval;
+	double pInfection = transmissivity() * infectiousCount() * interval;
 
 	if (interval <= 0) return; // short circuit the process for efficiency
 
@@ -49,15 +67,82 @@ public abstract class Place {
 	// BUG -- should it be: pInfection = 1.0 - Math.exp( -pInfection );
 
 	// give everyone a fair chance to catch the infection
+	Person[] candidates = null; // who could have done it, for Lineage
+	int n = 0;
+	double[] draws = null; // the same for every variant of Lockstep
+	if (Lockstep.on) draws = Lockstep.draws( occupants.size() );
+	int j = 0;
 	for (Person p: occupants) {
-	    if (rand.nextDouble() < pInfection) {
-		p.infect( time );
+	    double u = rand.nextDouble();
+	    if (draws != null) draws[j++] = u;
+	    if (u < pInfection) {
+		if (!p.infect( time )) continue;
+		if (Results.streaming) Results.infection( p, this, time );
+		if (Sketches.on) Sketches.infection( this );
+		if (Lineage.recording) {
+		    if (candidates == null) { // find them only when needed
+			candidates = new Person[occupants.size()];
+			for (Person q: occupants) {
+			    if (q.isInfectious()) candidates[n++] = q;
+			}
+		    }
+		    Lineage.infection( p, this, time, candidates, n );
+		}
 	    }
 	}
+	infectOthers( pInfection, time );
+	if (Lockstep.on) Lockstep.check( this, time, draws ); // all variants
 
 	lastCheck = time;
     }
 
+    /** Give anyone here who isn't a Person their chance of infection
+     *  @param pInfection the chance each has
+     *  @param time the time of any infection
+     *  Called by whoToInfect() after the occupants have had theirs.
+     */
+    protected void infectOthers( double pInfection, double time ) {
+    }
+
+    /** change the transmissivity of this place
+     *  @param t the new transmissivity
+     *  @param time, the time of the change
+     *  infections up to now happen at the old transmissivity
+     */
+    public void setTransmissivity( double t, double time ) {
+	whoToInfect( time );
+	if (AgentStore.open) {
+	    AgentStore.transmissivity( this, t );
+	} else {
+	    transmissivity = t;
+	}
+    }
+
+    /** @return the transmissivity of this place
+     */
+    double transmissivity() {
+	if (AgentStore.open) return AgentStore.transmissivity( this );
+	return transmissivity;
+    }
+
+    /** @return true if a policy has closed this place
+     */
+    boolean closed() {
+	if (AgentStore.open) return AgentStore.closed( this );
+	return closed;
+    }
+
+    /** Close or reopen this place, for policies
+     *  @param c true to close it
+     */
+    void setClosed( boolean c ) {
+	if (AgentStore.open) {
+	    AgentStore.closed( this, c );
+	} else {
+	    closed = c;
+	}
+    }
+
     /** another person here has become infectious
      *  @param time, the time of the change
      *  they either arrived while infectous
@@ -65,7 +150,9 @@ public abstract class Place {
      */
     public void oneMoreInfectious( double time ) {
 	whoToInfect( time );
-	infectiousCount = infectiousCount + 1;
+	int n = infectiousCount() + 1;
+	setInfectiousCount( n );
+	Trigger.infectious( this, n - 1, n, time );
     }
 
     /** one less person here is infectious
@@ -75,7 +162,25 @@ public abstract class Place {
      */
     public void oneLessInfectious( double time ) {
 	whoToInfect( time );
-	infectiousCount = infectiousCount - 1;
+	int n = infectiousCount() - 1;
+	setInfectiousCount( n );
+	Trigger.infectious( this, n + 1, n, time );
+    }
+
+    /** @return the number of infectious occupants
+     */
+    int infectiousCount() {
+	if (AgentStore.open) return AgentStore.infectious( this );
+	return infectiousCount;
+    }
+
+    // note the number of infectious occupants
+    private void setInfectiousCount( int n ) {
+	if (AgentStore.open) {
+	    AgentStore.infectious( this, n );
+	} else {
+	    infectiousCount = n;
+	}
     }
 
     // tools for moving people in and out of places
@@ -85,12 +190,15 @@ public abstract class Place {
      *  @param time, the time of arrival
      */
     public void arrive( Person p, double time ) {
+	if (Sketches.on) Sketches.arrive( this, p );
+	if (Colocation.on) Colocation.arrive( p, time );
 	occupants.add( p );
 	if (p.isInfectious()) {
 	    oneMoreInfectious( time );
 	} else {
 	    whoToInfect( time );
 	}
+	if (Lockstep.on) Lockstep.arrive( this, p, time );
 
 	// DEBUG System.out.println(
 	//  (Object)p.toString() + " arrives " + (Object)this + " at " + time
@@ -108,6 +216,8 @@ public abstract class Place {
 	    whoToInfect( time );
 	}
 
+	if (Lockstep.on) Lockstep.depart( this, p, time );
+	if (Colocation.on) Colocation.depart( p, this, time );
 	boolean wasPresent = occupants.remove( p );
 	assert wasPresent: "p=" + p + " this=" + this;
 	assert !occupants.contains( p ): "p=" + p + " this=" + this;
@@ -121,6 +231,47 @@ public abstract class Place {
     private static final LinkedList <Place> allPlaces =
 	new LinkedList <Place> ();
 
+    /** Restore transient fields as a place is deserialized
+     *  @param in the stream the place is being read from
+     */
+    private void readObject( ObjectInputStream in )
+	throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	occupants = new LinkedList<> ();
+    }
+
+    /** Put a place restored from a snapshot back into the community
+     *  @param p the place
+     *  Called only by Snapshot, in order of place ids.
+     */
+    static void adopt( Place p ) {
+	allPlaces.add( p );
+    }
+
+    /** @return true if any place counts anyone there as infectious
+     *  Once no one is infectious or bedridden, none should.
+     */
+    static boolean anyInfectious() {
+	for (Place p: allPlaces) if (p.infectiousCount() != 0) return true;
+	return false;
+    }
+
+    /** Renumber the places, and put them in order of the new ids
+     *  @param newId the new id of each place, by old id
+     *  Called only by Locality, between events.
+     */
+    static void renumber( int[] newId ) {
+	for (Place p: allPlaces) p.id = newId[p.id];
+	allPlaces.sort( Comparator.comparingInt( (Place p)-> p.id ) );
+    }
+
+    /** Forget all places, so a new simulation can start
+     */
+    static void reset() {
+	allPlaces.clear();
+    }
+
     /** Allow outsiders to iterate over all places
      * @return an iterator over places
      */
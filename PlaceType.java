@@ -0,0 +1,263 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Kinds of places, such as schools and stores, described by the community
+ * description file instead of by classes of their own
+ * Each type says how big its places are, how infectious, when they are
+ * open and who belongs to them.  Members move in batches: once a day one
+ * event sends every member who is at home and well off to their place of
+ * this type, and one more event sends everyone there home again, each
+ * followed by one event for the whole batch arriving.  So a place type
+ * costs four events a day, no matter how many people belong to it.
+ * @author Thomas McDowell
+ * @version 1/11/2021
+ * Status: New code
+ * @see GenericPlace
+ */
+public class PlaceType implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /** Who may belong to places of a type
+     */
+    public enum Rule {
+	anyone, employed, unemployed
+    }
+
+    final String name;
+    private final double sizeMed;   // median number of members
+    private final double sizeSc;    // scatter of the number of members
+    private final double transMed;  // median transmissivity
+    private final double transSc;   // scatter of the transmissivity
+    private final double open;      // time of day the places open
+    private final double close;     // time of day the places close
+    private final double share;     // fraction of those eligible who belong
+    private final Rule rule;        // who is eligible
+
+    // the places of this type, in order of construction
+    private final ArrayList <GenericPlace> places =
+	new ArrayList <GenericPlace> ();
+
+    // everyone travels at once, taking the median travel time
+    private static final double travelTime = 20 * Simulator.minute;
+
+    // all the types, in order of construction
+    private static final ArrayList <PlaceType> types =
+	new ArrayList <PlaceType> ();
+
+    /** Construct and register a place type
+     *  @param name the name of the type
+     *  @param sizeMed the median number of members of each place
+     *  @param sizeSc the scatter of the number of members
+     *  @param transMed the median transmissivity, per hour
+     *  @param transSc the scatter of the transmissivity, per hour
+     *  @param open the hour of the day at which the places open
+     *  @param close the hour of the day at which the places close
+     *  @param share the fraction of eligible people who belong
+     *  @param rule who is eligible
+     *  No places are made until build() is called.
+     */
+    PlaceType(
+	String name, double sizeMed, double sizeSc,
+	double transMed, double transSc,
+	double open, double close, double share, Rule rule
+    ) {
+	this.name = name;
+	this.sizeMed = sizeMed;
+	this.sizeSc = sizeSc;
+	this.transMed = transMed * Simulator.hour;
+	this.transSc = transSc * Simulator.hour;
+	this.open = open * Simulator.hour;
+	this.close = close * Simulator.hour;
+	this.share = share;
+	this.rule = rule;
+	types.add( this );
+    }
+
+    /** Forget all place types, so a new simulation can start
+     */
+    static void reset() {
+	types.clear();
+    }
+
+    /** Put a type restored from a snapshot back into the model
+     *  @param t the type, with its places already restored
+     *  Called only by Snapshot, in the original order of types.
+     */
+    static void adopt( PlaceType t ) {
+	types.add( t );
+    }
+
+    /** @return all place types, in order of construction
+     */
+    static PlaceType[] all() {
+	return types.toArray( new PlaceType[0] );
+    }
+
+    /** @return true if every type is only for employees
+     */
+    static boolean onlyEmployed() {
+	for (PlaceType t: types) if (t.rule != Rule.employed) return false;
+	return true;
+    }
+
+    /** Make the places of every type, fill them and start them moving
+     *  Called once the rest of the community has been built.
+     */
+    static void buildAll() {
+	for (PlaceType t: types) t.build();
+    }
+
+    /** Forget the dead members of every place of every type
+     *  @return the number of members forgotten
+     *  Should only be called when compacting away the dead
+     */
+    static int removeDead() {
+	int removed = 0;
+	for (PlaceType t: types) {
+	    for (GenericPlace p: t.places) removed = removed + p.removeDead();
+	}
+	return removed;
+    }
+
+    /** @return the type and all its parameters, as read, for ResultCache
+     */
+    String describe() {
+	return "placetype " + name + " " + sizeMed + " " + sizeSc
+	    + " " + transMed + " " + transSc + " " + open + " " + close
+	    + " " + share + " " + rule;
+    }
+
+    /** @param p a person
+     *  @return true if p may belong to places of this type
+     */
+    private boolean eligible( Person p ) {
+	switch (rule) {
+	case employed: return p instanceof Employee;
+	case unemployed: return !(p instanceof Employee);
+	default: return true;
+	}
+    }
+
+    /** Make the places of this type, fill them and start them moving
+     */
+    private void build() {
+	final MyRandom rand = MyRandom.stream();
+	final Distribution size = new Distribution.LogNormal( sizeMed, sizeSc );
+	final Distribution trans =
+	    new Distribution.LogNormal( transMed, transSc );
+
+	// fill places one at a time, as buildCommunity fills workplaces
+	GenericPlace current = null;
+	int capacity = 0;
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    Person p = i.next();
+	    if (!eligible( p ) || (rand.nextDouble() >= share)) continue;
+	    if (capacity < 1) { // must create a new place
+		current = new GenericPlace( this, trans.next() );
+		places.add( current );
+		capacity = (int)Math.ceil( size.next() );
+	    }
+	    capacity = capacity - 1;
+	    current.addMember( p );
+	}
+
+	// the first trips, leaving in time to arrive as the places open
+	double leave = open - travelTime;
+	if (leave < 0) leave = leave + Simulator.day;
+	Simulator.schedule( new Leave( leave, true ) );
+	Simulator.schedule( new Leave( close, false ) );
+    }
+
+    /** Event where a whole batch of people leaves, every day
+     *  @author Thomas McDowell
+     *  @version 1/11/2021
+     */
+    private class Leave extends Simulator.Event {
+	private static final long serialVersionUID = 1L;
+	final boolean going; // true if going to places of this type
+
+	/** @param t the time of departure
+	 *  @param going true to go to places of this type, false to go home
+	 */
+	Leave( double t, boolean going ) {
+	    super( t );
+	    this.going = going;
+	}
+
+	/** Take everyone who is going off, then leave again a day later
+	 *  Nobody is in any place while traveling, and nobody who has
+	 *  some trip of their own planned goes anywhere with the batch.
+	 */
+	public void trigger() {
+	    ArrayList<Person> who = new ArrayList<Person> ();
+	    ArrayList<Place> to = new ArrayList<Place> ();
+	    for (GenericPlace p: places) {
+		if (going) {
+		    if (p.closed()) continue; // nobody goes to closed places
+		    for (Person m: p.members()) {
+			HomePlace home = m.home();
+			if ((m.place() != home) || (m.trip != null)) continue;
+			Person.States s = m.state();
+			if ((s == Person.States.bedridden)
+			||  (s == Person.States.dead)) continue;
+			home.depart( m, time );
+			m.setPlace( null );
+			who.add( m );
+			to.add( p );
+		    }
+		} else {
+		    for (Person m: new ArrayList<Person>( p.occupants() )) {
+			p.depart( m, time );
+			m.setPlace( null );
+			who.add( m );
+			to.add( m.home() );
+		    }
+		}
+	    }
+	    if (!who.isEmpty()) Simulator.schedule( new Arrive(
+		time + travelTime,
+		who.toArray( new Person[0] ), to.toArray( new Place[0] )
+	    ) );
+	    Simulator.schedule( new Leave( time + Simulator.day, going ) );
+	}
+    }
+
+    /** Event where a whole batch of people arrives
+     *  @author Thomas McDowell
+     *  @version 1/11/2021
+     */
+    private static class Arrive extends Simulator.Event {
+	private static final long serialVersionUID = 1L;
+	final Person[] who;
+	final Place[] to;
+
+	/** @param t the time of arrival
+	 *  @param who the people who arrive
+	 *  @param to where each of them arrives
+	 */
+	Arrive( double t, Person[] who, Place[] to ) {
+	    super( t );
+	    this.who = who;
+	    this.to = to;
+	}
+
+	/** Everyone arrives, unless something else has moved them since
+	 */
+	public void trigger() {
+	    for (int i = 0; i < who.length; i++) {
+		Person p = who[i];
+		if ((p.place() == null) && (p.trip == null)) {
+		    p.arriveAt( time, to[i] );
+		}
+	    }
+	}
+    }
+
+    /** Primarily for debugging
+     * @return the name of the type
+     */
+    public String toString() {
+	return name;
+    }
+}
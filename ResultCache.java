@@ -0,0 +1,329 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk cache of simulation results, keyed by all that decides them
+ * A run with a given seed can be repeated exactly, so its reports are
+ * kept in a directory, one file per run, and a later run of the same
+ * scenario with the same seed prints them again without simulating.
+ * <p>
+ * The key is a SHA-256 hash of a canonical description of the run:  the
+ * parsed community description, the seed, the contents of any graph it
+ * loads, and the constants of the disease model, so changing a constant
+ * makes older entries miss.  Where output goes is not part of the key,
+ * and runs that write files of their own, lineage, a store or a saved
+ * graph, are never cached.  Each entry holds the description itself, so a hash
+ * collision is caught, and the reports, deflated.  Once the entries add
+ * up to more than the disk budget, the least recently used are deleted.
+ * @author Thomas McDowell
+ * @version 1/20/2021
+ * Status: New code
+ * @see Epidemic
+ */
+public class ResultCache {
+    private ResultCache(){} // prevent anyone from instantiating this class
+
+    private static final int magic = 0x45504943; // "EPIC"
+    private static final int version = 2; // change when the model changes
+    private static final String suffix = ".epc";
+
+    // kinds of record in an entry
+    private static final byte end = 0;
+    private static final byte report = 1;
+    private static final byte line = 2;
+
+    // the classes whose constants decide the course of the disease
+    private static final Class<?>[] models = {
+	Simulator.class, Person.class, Employee.class, Place.class,
+	HomePlace.class, WorkPlace.class, PlaceType.class
+    };
+
+    private static final int states = Person.States.values().length;
+
+    // the run being recorded, if any
+    private static String description = null;
+    private static ByteArrayOutputStream bytes = null;
+    private static DataOutputStream series = null;
+
+    /** Add the static final numbers of a class to a description
+     *  @param d the description
+     *  @param c the class
+     */
+    private static void constants( StringBuilder d, Class<?> c ) {
+	Field[] fields = c.getDeclaredFields();
+	Arrays.sort( fields, Comparator.comparing( Field::getName ) );
+	for (Field f: fields) {
+	    int m = f.getModifiers();
+	    if (!Modifier.isStatic( m ) || !Modifier.isFinal( m )) continue;
+	    if (!f.getType().isPrimitive()) continue;
+	    try {
+		f.setAccessible( true );
+		d.append( c.getName() + "." + f.getName()
+		    + " " + f.get( null ) + "\n"
+		);
+	    } catch ( IllegalAccessException e ) {
+		Error.fatal( "cache: can't read " + f.getName() );
+	    }
+	}
+    }
+
+    /** @return the SHA-256 hash of some bytes, in hex
+     *  @param in the bytes
+     *  @throws IOException if they can't be read
+     */
+    private static String hash( InputStream in ) throws IOException {
+	try {
+	    MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+	    byte[] buffer = new byte[1 << 16];
+	    for (int n = in.read( buffer ); n >= 0; n = in.read( buffer )) {
+		md.update( buffer, 0, n );
+	    }
+	    StringBuilder hex = new StringBuilder();
+	    for (byte b: md.digest()) hex.append( String.format( "%02x", b ) );
+	    return hex.toString();
+	} catch ( NoSuchAlgorithmException e ) {
+	    throw new IOException( "no SHA-256" ); // every JVM has it
+	}
+    }
+
+    /** @return the name of the entry for a run
+     *  @param d the description of the run
+     */
+    private static String name( String d ) throws IOException {
+	return hash( new ByteArrayInputStream(
+	    d.getBytes( StandardCharsets.UTF_8 )
+	) );
+    }
+
+    /** @return a canonical description of the run that Epidemic has read
+     *  @throws IOException if a graph it loads can't be read
+     *  Equal descriptions mean equal results; the spelling and order of
+     *  commands in the file don't matter, except where they change the
+     *  simulation, as the order of place types and branches does.
+     */
+    private static String describe() throws IOException {
+	StringBuilder d = new StringBuilder();
+	d.append( "version " + version + "\n" );
+	d.append( "seed " + Epidemic.seed + "\n" );
+	if (Epidemic.loadGraph != null) {
+	    try (InputStream in = new FileInputStream( Epidemic.loadGraph )) {
+		d.append( "graph " + hash( in ) + "\n" );
+	    }
+	} else {
+	    d.append( "pop " + Epidemic.pop + "\n" );
+	    d.append( "house " + Epidemic.houseMed
+		+ " " + Epidemic.houseSc + "\n"
+	    );
+	    d.append( "workplace " + Epidemic.workMed
+		+ " " + Epidemic.workSc + "\n"
+	    );
+	    d.append( "employed " + Epidemic.employed + "\n" );
+	}
+	d.append( "infected " + Epidemic.infected + "\n" );
+	d.append( "compact " + Epidemic.compact + "\n" );
+	d.append( "households " + Epidemic.households + "\n" );
+	d.append( "batches " + (Epidemic.threads > 0) + "\n" );
+	d.append( "sketches " + Epidemic.sketches + "\n" );
+	d.append( "trace " + Epidemic.trace + "\n" );
+	if (Epidemic.scale != null) {
+	    d.append( "transmissivity " + Epidemic.scale[0]
+		+ " " + Epidemic.scale[1] + "\n"
+	    );
+	}
+	if (Epidemic.reorder != null) {
+	    d.append( "reorder " + Epidemic.reorder + "\n" );
+	}
+	for (double[] v: Epidemic.variants) {
+	    d.append( "variant " + v[0] + " " + v[1] + "\n" );
+	}
+	d.append( "end " + Epidemic.end + "\n" );
+	d.append( "fork " + Epidemic.fork + "\n" );
+	for (double[] b: Epidemic.branches) {
+	    d.append( "branch " + b[0] + " " + b[1] + "\n" );
+	}
+	for (PlaceType t: PlaceType.all()) d.append( t.describe() + "\n" );
+	for (Trigger g: Trigger.all()) d.append( g + "\n" );
+	for (Class<?> c: models) constants( d, c );
+	return d.toString();
+    }
+
+    /** Look up the run that Epidemic has read, and replay it if cached
+     *  @param dir the cache directory
+     *  @return true if the reports were printed from the cache
+     *  On a miss, the run is recorded as it goes, for store() to keep.
+     *  A run streaming its Results is never replayed, since only the
+     *  reports are cached, but it is recorded.
+     *  Any trouble with the cache is noted, and the run goes ahead.
+     */
+    static boolean lookup( File dir ) {
+	reset();
+	if (!Epidemic.seeded) {
+	    Error.note( "cache: no seed, so nothing to look up" );
+	    return false;
+	}
+	if ((Epidemic.lineage != null) || (Epidemic.saveGraph != null)
+	||  (Epidemic.store != null)) {
+	    Error.note( "cache: the run writes files, so it isn't cached" );
+	    return false;
+	}
+	try {
+	    String d = describe();
+	    File f = new File( dir, name( d ) + suffix );
+	    if (!Results.streaming && f.isFile() && replay( f, d )) {
+		f.setLastModified( System.currentTimeMillis() ); // for LRU
+		Error.note( "cache: results from " + f );
+		return true;
+	    }
+	    description = d;
+	    bytes = new ByteArrayOutputStream();
+	    series = new DataOutputStream( new DeflaterOutputStream( bytes ) );
+	} catch ( IOException e ) {
+	    Error.note( "cache: " + e.getMessage() );
+	}
+	return false;
+    }
+
+    /** Print the reports of a cached run
+     *  @param f the entry
+     *  @param d the description of the run wanted
+     *  @return false if the entry is for some other run, or damaged
+     */
+    private static boolean replay( File f, String d ) {
+	ArrayList<String> lines = new ArrayList<String>();
+	try (DataInputStream in = new DataInputStream(
+	    new BufferedInputStream( new FileInputStream( f ) )
+	)) {
+	    if (in.readInt() != magic) return false;
+	    if (!in.readUTF().equals( d )) return false; // a collision?
+	    DataInputStream s = new DataInputStream(
+		new InflaterInputStream( in )
+	    );
+	    int[] counts = new int[states];
+	    for (byte kind = s.readByte(); kind != end; kind = s.readByte()) {
+		if (kind == report) {
+		    double t = s.readDouble();
+		    for (int i = 0; i < states; i++) counts[i] = s.readInt();
+		    lines.add( Person.format( Counters.view( t, counts ) ) );
+		} else {
+		    lines.add( s.readUTF() );
+		}
+	    }
+	} catch ( IOException e ) {
+	    Error.note( "cache: " + f + ": " + e.getMessage() );
+	    return false;
+	}
+	// print nothing until all is read, in case the entry is damaged
+	for (String l: lines) Person.reports.println( l );
+	return true;
+    }
+
+    /** Record a daily report of the run being recorded, if any
+     *  @param v the counts reported
+     */
+    static void report( Counters.View v ) {
+	if (series == null) return;
+	try {
+	    series.writeByte( report );
+	    series.writeDouble( v.time );
+	    for (Person.States s: Person.States.values()) {
+		series.writeInt( v.get( s ) );
+	    }
+	} catch ( IOException e ) {
+	    assert false; // can't happen writing to memory
+	}
+    }
+
+    /** Record any other line of report of the run being recorded, if any
+     *  @param s the line
+     */
+    static void line( String s ) {
+	if (series == null) return;
+	try {
+	    series.writeByte( line );
+	    series.writeUTF( s );
+	} catch ( IOException e ) {
+	    assert false; // can't happen writing to memory
+	}
+    }
+
+    /** Keep the run that was recorded, then trim the cache to its budget
+     *  @param dir the cache directory
+     *  @param megabytes the disk budget
+     *  Does nothing if lookup() found the run or didn't record it.
+     */
+    static void store( File dir, double megabytes ) {
+	if (series == null) return;
+	try {
+	    series.writeByte( end );
+	    series.close();
+	    String name = name( description );
+	    dir.mkdirs();
+
+	    // write it whole before it gets its name, so readers never see
+	    // part of an entry, even from other jobs running at once
+	    File tmp = File.createTempFile( name, ".tmp", dir );
+	    try (DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream( new FileOutputStream( tmp ) )
+	    )) {
+		out.writeInt( magic );
+		out.writeUTF( description );
+		bytes.writeTo( out );
+	    }
+	    Files.move( tmp.toPath(), new File( dir, name + suffix ).toPath(),
+		StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE
+	    );
+	    evict( dir, (long)(megabytes * 1024 * 1024) );
+	} catch ( IOException e ) {
+	    Error.note( "cache: " + e.getMessage() );
+	}
+	reset();
+    }
+
+    /** Delete the least recently used entries until the rest fit a budget
+     *  @param dir the cache directory
+     *  @param budget the most bytes the entries may take
+     */
+    private static void evict( File dir, long budget ) {
+	File[] entries = dir.listFiles( (d, n)-> n.endsWith( suffix ) );
+	if (entries == null) return;
+	long total = 0;
+	for (int i = 0; i < entries.length; i++) {
+	    total = total + entries[i].length();
+	}
+	Arrays.sort( entries, Comparator.comparingLong( File::lastModified ) );
+	for (int i = 0; (i < entries.length) && (total > budget); i++) {
+	    long size = entries[i].length();
+	    if (entries[i].delete()) total = total - size;
+	}
+    }
+
+    /** Forget any run being recorded, so a new simulation can start
+     */
+    static void reset() {
+	description = null;
+	bytes = null;
+	series = null;
+    }
+}
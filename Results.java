@@ -0,0 +1,316 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Results of a simulation as a stream of typed records, for embedding code
+ * Code that runs simulations calls open() and subscribes to the publisher
+ * it gets before starting a run; as the run goes on, subscribers get the
+ * daily counts, a summary of each place where someone was infected that
+ * day, each infection, and the start of each branch of a forked run.  The
+ * stream completes when the run ends, or fails if the run does.
+ * <p>
+ * Records go to each subscriber through a buffer of bounded size, on a
+ * thread of the publisher's own.  When a subscriber falls so far behind
+ * that its buffer fills, the simulation waits for it to catch up, so a
+ * slow consumer slows the simulation instead of using unbounded memory.
+ * Each daily report also waits until every subscriber has taken the
+ * Daily record, so no subscriber is ever a whole day behind the run.
+ * With no stream open, all of this costs one test per infection and day.
+ * <p>
+ * A subscriber that has seen enough can cancel its subscription.  Once
+ * every subscriber has cancelled, the run stops at the first daily report
+ * that finds them all gone: the very report whose Daily record the last
+ * of them cancelled on, or else the next one.  Calibrate cancels this way
+ * on the day a run strays too far from what was observed, so that run
+ * goes not a moment past that day's report.
+ * @author Thomas McDowell
+ * @version 1/21/2021
+ * Status: New code
+ * @see Epidemic
+ */
+public class Results {
+    private Results(){} // prevent anyone from instantiating this class
+
+    /** true if a stream is open; test before calling the record methods
+     */
+    static boolean streaming = false;
+
+    private static SubmissionPublisher <Record> publisher = null;
+    private static ExecutorService deliver = null; // the publisher's thread
+
+    // every subscriber so far, and the Daily records sent to them; both
+    // are guarded by the lock on the list
+    private static final ArrayList <Handoff> handoffs =
+	new ArrayList <Handoff> ();
+    private static long days = 0;
+
+    // infections in each place so far today, in order of the first one
+    private static final Map <Place, int[]> today =
+	new LinkedHashMap <Place, int[]> ();
+
+    /** Any record of the results
+     */
+    public abstract static class Record {
+	/** the simulated time of the record */
+	public final double time;
+
+	private Record( double time ) {
+	    this.time = time;
+	}
+    }
+
+    /** The counts of people in each state, made at each daily report
+     */
+    public static final class Daily extends Record {
+	/** the counts */
+	public final Counters.View counts;
+
+	private Daily( Counters.View counts ) {
+	    super( counts.time );
+	    this.counts = counts;
+	}
+    }
+
+    /** What happened in one place during the day before a daily report
+     *  Only places where someone was infected that day are summarized;
+     *  on the day of a fork, each branch counts from the fork time.
+     */
+    public static final class PlaceDay extends Record {
+	/** the place number, as in Lineage */
+	public final int place;
+	/** home, work, or the name of a place type */
+	public final String kind;
+	/** how many were infected there that day */
+	public final int infections;
+	/** how many are there at the time of the report */
+	public final int occupants;
+
+	private PlaceDay( double time, Place p, int infections ) {
+	    super( time );
+	    this.place = p.id;
+	    this.kind = kind( p );
+	    this.infections = infections;
+	    this.occupants = p.occupants.size();
+	}
+    }
+
+    /** One person infected
+     */
+    public static final class Infection extends Record {
+	/** the person infected, numbered as in Lineage, or -1 for one of
+	 *  the residents a home counts instead of constructing */
+	public final int person;
+	/** the place number, as in Lineage */
+	public final int place;
+	/** home, work, or the name of a place type */
+	public final String kind;
+
+	private Infection( double time, Person p, Place where ) {
+	    super( time );
+	    this.person = (p == null) ? -1 : p.serial;
+	    this.place = where.id;
+	    this.kind = kind( where );
+	}
+    }
+
+    /** The start of one branch of a forked run, at the fork time
+     *  The records that follow, up to the next branch, are of this branch.
+     */
+    public static final class Branch extends Record {
+	/** the number of the branch, from zero */
+	public final int branch;
+	/** the scale factors of work and home transmissivity */
+	public final double work;
+	public final double home;
+
+	private Branch( double time, int branch, double work, double home ) {
+	    super( time );
+	    this.branch = branch;
+	    this.work = work;
+	    this.home = home;
+	}
+    }
+
+    /** A subscriber as the publisher sees it, telling daily() what the
+     *  subscriber has taken, and whether it has gone
+     */
+    private static final class Handoff implements Flow.Subscriber <Record> {
+	final Flow.Subscriber <? super Record> s;
+	long taken = 0; // Daily records taken
+	boolean gone = false; // cancelled, failed or completed
+
+	Handoff( Flow.Subscriber <? super Record> s ) {
+	    this.s = s;
+	}
+
+	// mark this subscriber gone, waking daily() if it waits on it
+	private void leave() {
+	    synchronized (handoffs) {
+		gone = true;
+		handoffs.notifyAll();
+	    }
+	}
+
+	public void onSubscribe( Flow.Subscription sub ) {
+	    s.onSubscribe( new Flow.Subscription() {
+		public void request( long n ) {
+		    sub.request( n );
+		}
+
+		public void cancel() {
+		    sub.cancel();
+		    leave();
+		}
+	    } );
+	}
+
+	public void onNext( Record r ) {
+	    s.onNext( r );
+	    if (r instanceof Daily) {
+		synchronized (handoffs) {
+		    taken = taken + 1;
+		    handoffs.notifyAll();
+		}
+	    }
+	}
+
+	public void onError( Throwable e ) {
+	    leave();
+	    s.onError( e );
+	}
+
+	public void onComplete() {
+	    leave();
+	    s.onComplete();
+	}
+    }
+
+    /** @return what kind of place p is
+     *  @param p a place
+     */
+    static String kind( Place p ) {
+	if (p instanceof HomePlace) return "home";
+	if (p instanceof WorkPlace) return "work";
+	if (p instanceof GenericPlace) return ((GenericPlace)p).type.name;
+	return "other";
+    }
+
+    /** Open the stream of results of the next run
+     *  @param buffer the most records to hold for each subscriber
+     *  @return the publisher, to subscribe to before the run starts
+     *  Subscribers must request records, since each daily report waits
+     *  for every subscriber to take it.
+     */
+    public static Flow.Publisher <Record> open( int buffer ) {
+	close(); // in case the last run left one open
+	deliver = Executors.newSingleThreadExecutor( r -> {
+	    Thread t = new Thread( r, "results" );
+	    t.setDaemon( true ); // it must not keep us alive
+	    return t;
+	} );
+	publisher = new SubmissionPublisher <Record> ( deliver, buffer );
+	today.clear();
+	streaming = true;
+	SubmissionPublisher <Record> p = publisher;
+	return s -> {
+	    Handoff h = new Handoff( s );
+	    synchronized (handoffs) {
+		handoffs.add( h );
+	    }
+	    p.subscribe( h );
+	};
+    }
+
+    /** Send one record, waiting while any subscriber's buffer is full
+     *  @param r the record
+     */
+    private static void send( Record r ) {
+	publisher.submit( r );
+    }
+
+    /** Record the daily report, with the places infected in that day
+     *  @param v the counts reported
+     *  This returns only once every subscriber has taken the Daily record
+     *  or gone, stopping the run if all have gone.
+     */
+    static void daily( Counters.View v ) {
+	for (Map.Entry <Place, int[]> e: today.entrySet()) {
+	    send( new PlaceDay( v.time, e.getKey(), e.getValue()[0] ) );
+	}
+	today.clear();
+	send( new Daily( v ) );
+
+	synchronized (handoffs) {
+	    days = days + 1;
+	    boolean listening = false;
+	    try {
+		for (Handoff h: handoffs) {
+		    while (!h.gone && (h.taken < days)) handoffs.wait();
+		    listening = listening || !h.gone;
+		}
+	    } catch ( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+		Simulator.stop(); // and don't wait for anyone
+		return;
+	    }
+
+	    // stop once everyone who was listening has gone
+	    if (!handoffs.isEmpty() && !listening) Simulator.stop();
+	}
+    }
+
+    /** Record one infection
+     *  @param p the person infected
+     *  @param where the place of infection
+     *  @param t the time of infection
+     */
+    static void infection( Person p, Place where, double t ) {
+	today.computeIfAbsent( where, k -> new int[1] )[0]++;
+	send( new Infection( t, p, where ) );
+    }
+
+    /** Record the start of a branch
+     *  @param t the time of the fork
+     *  @param b the number of the branch
+     *  @param work the scale factor of work transmissivity
+     *  @param home the scale factor of home transmissivity
+     */
+    static void branch( double t, int b, double work, double home ) {
+	today.clear(); // what the last branch did today didn't happen here
+	send( new Branch( t, b, work, home ) );
+    }
+
+    /** Complete the stream, once all buffered records are delivered
+     */
+    static void close() {
+	if (publisher != null) publisher.close();
+	finish();
+    }
+
+    /** Forget the stream that was just completed or failed
+     */
+    private static void finish() {
+	if (deliver != null) deliver.shutdown(); // after what's queued
+	deliver = null;
+	publisher = null;
+	streaming = false;
+	synchronized (handoffs) {
+	    handoffs.clear();
+	    days = 0;
+	}
+	today.clear();
+    }
+
+    /** Fail the stream, after any buffered records are delivered
+     *  @param e why
+     */
+    static void fail( Throwable e ) {
+	if (publisher != null) publisher.closeExceptionally( e );
+	finish();
+    }
+}
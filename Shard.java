@@ -0,0 +1,729 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Simulation of one community split into regions, each in its own process
+ * Usage: java Shard file regions
+ * <p>
+ * The coordinator builds or loads the community, splits it into regions
+ * by clustering workplaces with the homes of their employees, and starts
+ * one Java process per region, each with its own Simulator and just the
+ * people who live there and the places there.  People who work in another
+ * region go there as visitors: their home region owns them and their
+ * infection, and tells the region they visit when they arrive and when
+ * their infection state changes; the region they visit sends them home
+ * again, saying whether they were infected there.
+ * <p>
+ * The regions run in step, a window of simulated time at a time, and
+ * exchange messages through the coordinator over local sockets between
+ * windows.  Every message is for a time at least one window after it is
+ * sent, so a region never needs to hear from the others in mid-window.
+ * The coordinator adds up the daily reports of the regions.
+ * <p>
+ * Policies such as closing workplaces act on the counts of each region.
+ * Forking, lineage and place types are not supported here.
+ * @author Thomas McDowell
+ * @version 1/16/2021
+ * Status: New code
+ * @see Epidemic
+ * @see ContactGraph
+ */
+public class Shard {
+    private Shard(){} // prevent anyone from instantiating this class
+
+    /** true in a region process, where some people and places are elsewhere
+     */
+    static boolean active = false;
+
+    /** the length of the windows of simulated time the regions run in step
+     *  This is also the least time ahead that any message may be for.
+     */
+    static final double window = 10 * Simulator.minute;
+
+    // the part of the community in this region, when active
+    private static int region;
+    private static int[] regionOf;    // the region of each place, by graph id
+    private static Place[] local;     // places here, by graph id, else null
+    private static final ArrayList <Person> people = // by serial number
+	new ArrayList <Person> ();
+    private static int[] agentOf;     // graph id of each person, by serial
+    private static int[] away;        // region each person visits, else -1
+    private static final HashMap <Integer, Visitor> visitors =
+	new HashMap <Integer, Visitor> ();
+
+    // messages waiting to go out at the end of the window
+    private static final ArrayList <Message> outbox =
+	new ArrayList <Message> ();
+
+    // ---- the coordinator ----
+
+    /** Split a community into regions
+     *  @param g the contact graph of the community
+     *  @param regions the number of regions
+     *  @return the region of each place, by id
+     *  Workplaces are first dealt out among the regions; then, a few times
+     *  over, each home joins the region where most of its employed
+     *  residents work, and each workplace the region where most of its
+     *  employees live, as long as no region gets much more than its share.
+     */
+    static int[] partition( ContactGraph g, int regions ) {
+	int[] part = new int[g.places()];
+	int next = 0;
+	for (int p = 0; p < g.places(); p++) {
+	    if (g.placeKind[p] == ContactGraph.work) {
+		part[p] = next % regions;
+		next = next + 1;
+	    }
+	}
+
+	long employees = 0;
+	for (int a = 0; a < g.agents(); a++) {
+	    if (g.workplace( a ) >= 0) employees = employees + 1;
+	}
+
+	int[] votes = new int[regions];
+	long[] load = new long[regions];
+	for (int round = 0; round < 4; round++) {
+	    // homes follow the workplaces of their residents
+	    Arrays.fill( load, 0 );
+	    double limit = 1.05 * g.agents() / regions;
+	    for (int h = 0; h < g.places(); h++) {
+		if (g.placeKind[h] != ContactGraph.home) continue;
+		Arrays.fill( votes, 0 );
+		for (int i = g.placeStart[h]; i < g.placeStart[h + 1]; i++) {
+		    int w = g.workplace( g.placeAgent[i] );
+		    if (w >= 0) votes[part[w]]++;
+		}
+		part[h] = choose( votes, load, g.size( h ), limit );
+		load[part[h]] = load[part[h]] + g.size( h );
+	    }
+
+	    // workplaces follow the homes of their employees
+	    Arrays.fill( load, 0 );
+	    limit = 1.05 * employees / regions;
+	    for (int w = 0; w < g.places(); w++) {
+		if (g.placeKind[w] != ContactGraph.work) continue;
+		Arrays.fill( votes, 0 );
+		for (int i = g.placeStart[w]; i < g.placeStart[w + 1]; i++) {
+		    votes[part[g.home( g.placeAgent[i] )]]++;
+		}
+		part[w] = choose( votes, load, g.size( w ), limit );
+		load[part[w]] = load[part[w]] + g.size( w );
+	    }
+	}
+	return part;
+    }
+
+    /** Choose a region for a place
+     *  @param votes how many members of the place favor each region
+     *  @param load how much each region already has
+     *  @param size how much the place would add
+     *  @param limit how much any region should have at most
+     *  @return the region with the most votes that has room, the least
+     *  loaded one on ties or when none has room
+     */
+    private static int choose(
+	int[] votes, long[] load, int size, double limit
+    ) {
+	int best = -1;
+	int least = 0;
+	for (int r = 0; r < votes.length; r++) {
+	    if (load[r] < load[least]) least = r;
+	    if (load[r] + size > limit) continue;
+	    if ((best < 0) || (votes[r] > votes[best])
+	    || ((votes[r] == votes[best]) && (load[r] < load[best]))) best = r;
+	}
+	return (best < 0) ? least : best;
+    }
+
+    /** Run a simulation split into regions
+     *  @param scenario the file holding the community description
+     *  @param regions the number of regions
+     *  @throws IOException if the regions can't be started or talked to
+     */
+    private static void coordinate( File scenario, int regions )
+	throws IOException
+    {
+	try {
+	    Epidemic.readScenario( new MyScanner( scenario ) );
+	} catch ( FileNotFoundException e ) {
+	    Error.fatal( "Can't open file: " + scenario );
+	}
+	if (Epidemic.fork > 0) Error.warn( "fork: not with regions" );
+	if (Epidemic.lineage != null) Error.warn( "lineage: not with regions" );
+	if (Epidemic.store != null) Error.warn( "store: not with regions" );
+	if (Epidemic.households) Error.warn( "households: not with regions" );
+	if (Epidemic.threads > 0) Error.warn( "threads: not with regions" );
+	if (Epidemic.sketches >= 0) Error.warn( "sketches: not with regions" );
+	if (Epidemic.trace > 0) Error.warn( "trace: not with regions" );
+	if (!Epidemic.variants.isEmpty()) {
+	    Error.warn( "variant: not with regions" );
+	}
+	if (Epidemic.reorder != null) Error.warn( "reorder: not with regions" );
+	if (PlaceType.all().length > 0) {
+	    Error.warn( "placetype: not with regions" );
+	}
+	Error.quitIfAny();
+
+	long seed = MyRandom.stream().nextLong(); // shared by all regions
+	ContactGraph g = Epidemic.communityGraph();
+	int[] part = partition( g, regions );
+
+	long commuters = 0;
+	long crossing = 0;
+	for (int a = 0; a < g.agents(); a++) {
+	    int w = g.workplace( a );
+	    if (w < 0) continue;
+	    commuters = commuters + 1;
+	    if (part[w] != part[g.home( a )]) crossing = crossing + 1;
+	}
+	Error.note( regions + " regions, " + crossing + " of " + commuters
+	    + " commuters work in another region"
+	);
+
+	// the regions read the community from files
+	File graphFile = File.createTempFile( "shard", ".graph" );
+	File partFile = File.createTempFile( "shard", ".regions" );
+	graphFile.deleteOnExit();
+	partFile.deleteOnExit();
+	g.save( graphFile );
+	try (DataOutputStream out = new DataOutputStream(
+	    new BufferedOutputStream( new FileOutputStream( partFile ) )
+	)) {
+	    for (int r: part) out.writeInt( r );
+	}
+	g = null; // the coordinator needs none of this any more
+
+	// start the regions, with the same Java and options as this one
+	ServerSocket server = new ServerSocket(
+	    0, regions, InetAddress.getLoopbackAddress()
+	);
+	String java = ProcessHandle.current().info().command().orElse(
+	    System.getProperty( "java.home" ) + "/bin/java"
+	);
+	Process[] process = new Process[regions];
+	for (int r = 0; r < regions; r++) {
+	    List<String> command = new ArrayList<String>();
+	    command.add( java );
+	    command.addAll(
+		ManagementFactory.getRuntimeMXBean().getInputArguments()
+	    );
+	    command.addAll( Arrays.asList(
+		"-cp", System.getProperty( "java.class.path" ), "Shard",
+		"-region", "" + r, "" + server.getLocalPort(),
+		scenario.getPath(), graphFile.getPath(), partFile.getPath(),
+		"" + seed
+	    ) );
+	    process[r] = new ProcessBuilder( command ).inheritIO().start();
+	}
+
+	DataInputStream[] in = new DataInputStream[regions];
+	DataOutputStream[] out = new DataOutputStream[regions];
+	for (int i = 0; i < regions; i++) {
+	    Socket s = server.accept();
+	    s.setTcpNoDelay( true );
+	    DataInputStream sin = new DataInputStream(
+		new BufferedInputStream( s.getInputStream() )
+	    );
+	    int r = sin.readInt();
+	    in[r] = sin;
+	    out[r] = new DataOutputStream(
+		new BufferedOutputStream( s.getOutputStream() )
+	    );
+	}
+	server.close();
+
+	// run the regions in step, one window at a time
+	int states = Person.States.values().length;
+	TreeMap<Double, int[]> reports = new TreeMap<Double, int[]>();
+	TreeMap<Double, Integer> reported = new TreeMap<Double, Integer>();
+	ArrayList<ArrayList<Message>> inbox =
+	    new ArrayList<ArrayList<Message>>();
+	for (int r = 0; r < regions; r++) inbox.add( new ArrayList<Message>() );
+	boolean finished = false;
+	while (!finished) {
+	    finished = true;
+	    for (int r = 0; r < regions; r++) {
+		for (int n = in[r].readInt(); n > 0; n--) {
+		    int to = in[r].readInt();
+		    inbox.get( to ).add( Message.read( in[r] ) );
+		}
+		if (in[r].readBoolean()) { // a daily report
+		    double t = in[r].readDouble();
+		    int[] sum =
+			reports.computeIfAbsent( t, k-> new int[states] );
+		    for (int i = 0; i < states; i++) {
+			sum[i] = sum[i] + in[r].readInt();
+		    }
+		    reported.merge( t, 1, Integer::sum );
+		}
+		if (!in[r].readBoolean()) finished = false;
+	    }
+
+	    // reports are complete once every region has made them
+	    while (!reported.isEmpty()
+	    &&     (reported.firstEntry().getValue() == regions)) {
+		double t = reported.pollFirstEntry().getKey();
+		Person.reports.println(
+		    Person.format( Counters.view( t, reports.remove( t ) ) )
+		);
+	    }
+
+	    for (int r = 0; r < regions; r++) {
+		out[r].writeBoolean( finished );
+		out[r].writeInt( inbox.get( r ).size() );
+		for (Message m: inbox.get( r )) m.write( out[r] );
+		out[r].flush();
+		inbox.get( r ).clear();
+	    }
+	}
+
+	for (Process p: process) {
+	    try {
+		if (p.waitFor() != 0) Error.warn( "a region failed" );
+	    } catch ( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    // ---- a region ----
+
+    /** Build the part of the community in this region
+     *  @param g the contact graph of the whole community
+     *  @param seed the seed shared by all regions
+     *  Who is infected at the start is decided for the whole community,
+     *  the same way in every region, and each region infects its own.
+     */
+    private static void build( ContactGraph g, long seed ) {
+	local = new Place[g.places()];
+	for (int p = 0; p < g.places(); p++) {
+	    if (regionOf[p] != region) continue;
+	    if (g.placeKind[p] == ContactGraph.work) {
+		local[p] = new WorkPlace( g.transmissivity[p] );
+	    } else {
+		local[p] = new HomePlace( g.transmissivity[p] );
+	    }
+	}
+
+	HashMap<Integer, WorkPlace> standIns =
+	    new HashMap<Integer, WorkPlace>();
+	int pop = g.agents();
+	int infected = Math.min( Epidemic.infected, pop );
+	Random pick = new Random( seed );
+	ArrayList<Integer> agents = new ArrayList<Integer>();
+	for (int a = 0; a < pop; a++) {
+	    boolean seeded = pick.nextInt( pop - a ) < infected;
+	    if (seeded) infected = infected - 1;
+	    if (regionOf[g.home( a )] != region) continue;
+
+	    Person p = null;
+	    HomePlace h = (HomePlace)local[g.home( a )];
+	    if (g.agentKind[a] == ContactGraph.employee) {
+		Employee e = new Employee( h );
+		int w = g.workplace( a );
+		if (w < 0) {
+		    // never given a workplace
+		} else if (regionOf[w] == region) {
+		    e.setWorkplace( (WorkPlace)local[w] );
+		} else {
+		    e.setWorkplace( standIns.computeIfAbsent(
+			w, k-> new RemoteWorkPlace( k, regionOf[k] )
+		    ) );
+		}
+		if (w >= 0) e.startCommute();
+		p = e;
+	    } else {
+		p = new Person( h );
+	    }
+	    people.add( p );
+	    agents.add( a );
+	    if (seeded) p.infect( 0 ); // infected from the beginning of time
+	}
+
+	agentOf = new int[agents.size()];
+	for (int i = 0; i < agentOf.length; i++) agentOf[i] = agents.get( i );
+	away = new int[agentOf.length];
+	Arrays.fill( away, -1 );
+	Person.report( 0.0 );
+    }
+
+    /** @param agent the graph id of someone who lives here
+     *  @return that person
+     */
+    private static Person person( int agent ) {
+	// people were made in order of graph id, so agentOf is sorted
+	return people.get( Arrays.binarySearch( agentOf, agent ) );
+    }
+
+    /** Queue a message for another region
+     *  @param to the region
+     *  @param m the message
+     */
+    static void send( int to, Message m ) {
+	m.to = to;
+	m.from = region;
+	outbox.add( m );
+    }
+
+    /** Someone here may be going to another region
+     *  @param p the person
+     *  @param where the place they are going
+     *  @param t the time they would arrive
+     *  @return true if they went to another region, false if not
+     *  They are in no place here until they come back.
+     */
+    static boolean travel( Person p, Place where, double t ) {
+	if (!(where instanceof RemoteWorkPlace)) return false;
+	RemoteWorkPlace w = (RemoteWorkPlace)where;
+	double arrival = Math.max( t, Simulator.now() + window );
+	p.setPlace( null );
+	away[p.serial] = w.region;
+	send( w.region, new Message(
+	    arrival, Message.arrive, agentOf[p.serial], w.graphId,
+	    p.state(), false
+	) );
+	return true;
+    }
+
+    /** The infection state of someone here has changed
+     *  @param p the person
+     *  @param s the new state
+     *  @param t the time of the change
+     *  If they are visiting another region, it has to know, a window on.
+     */
+    static void changed( Person p, Person.States s, double t ) {
+	if ((p.serial < 0) || (away[p.serial] < 0)) return;
+	send( away[p.serial], new Message(
+	    t + window, Message.changed, agentOf[p.serial], -1, s, false
+	) );
+    }
+
+    /** Act on a message from another region
+     *  @param m the message, at its time
+     */
+    static void deliver( Message m ) {
+	if (m.kind == Message.home) { // someone from here is back
+	    Person p = person( m.agent );
+	    away[p.serial] = -1;
+	    if (p.state() == Person.States.dead) return;
+	    if (m.infected) p.infect( m.time ); // caught it while away
+	    p.arriveAt( m.time, p.home() );
+	    return;
+	}
+
+	Visitor v = visitors.computeIfAbsent(
+	    m.agent, k-> new Visitor( k, m.from )
+	);
+	if (m.kind == Message.arrive) {
+	    v.visit( local[m.place], m.state, m.time );
+	} else {
+	    v.see( m.state, m.time );
+	}
+    }
+
+    /** Run this region in step with the others
+     *  @param args the region number, the coordinator's port, and the
+     *  files holding the scenario, the graph and the regions, and the seed
+     *  @throws IOException if the files or the coordinator can't be read
+     */
+    private static void runRegion( String[] args ) throws IOException {
+	region = Integer.parseInt( args[1] );
+	int port = Integer.parseInt( args[2] );
+	long seed = Long.parseLong( args[6] );
+	Socket s = new Socket( InetAddress.getLoopbackAddress(), port );
+	s.setTcpNoDelay( true );
+	DataInputStream in = new DataInputStream(
+	    new BufferedInputStream( s.getInputStream() )
+	);
+	DataOutputStream out = new DataOutputStream(
+	    new BufferedOutputStream( s.getOutputStream() )
+	);
+	out.writeInt( region );
+	out.flush();
+
+	Epidemic.readScenario( new MyScanner( new File( args[3] ) ) );
+	ContactGraph g = ContactGraph.load( new File( args[4] ) );
+	regionOf = new int[g.places()];
+	try (DataInputStream part = new DataInputStream(
+	    new BufferedInputStream( new FileInputStream( args[5] ) )
+	)) {
+	    for (int p = 0; p < regionOf.length; p++) {
+		regionOf[p] = part.readInt();
+	    }
+	}
+	build( g, seed );
+	g = null; // only regionOf is needed from here on
+	active = true;
+	if (Epidemic.compact > 0) {
+	    Person.compactEvery( Epidemic.compact, Epidemic.compact );
+	}
+	MyRandom.stream().setSeed( seed + region ); // each its own stream
+	Person.reports = new PrintStream( OutputStream.nullOutputStream() );
+
+	Counters.View sent = null;
+	boolean finished = false;
+	for (long w = 1; ; w++) {
+	    if (!finished) {
+		Simulator.runUntil( w * window );
+		finished = Simulator.stopped();
+	    }
+
+	    out.writeInt( outbox.size() );
+	    for (Message m: outbox) {
+		out.writeInt( m.to );
+		m.write( out );
+	    }
+	    outbox.clear();
+	    Counters.View v = Counters.latest();
+	    out.writeBoolean( v != sent );
+	    if (v != sent) {
+		out.writeDouble( v.time );
+		for (Person.States st: Person.States.values()) {
+		    out.writeInt( v.get( st ) );
+		}
+		sent = v;
+	    }
+	    out.writeBoolean( finished );
+	    out.flush();
+
+	    boolean done = in.readBoolean();
+	    for (int n = in.readInt(); n > 0; n--) {
+		Simulator.schedule( Message.read( in ) );
+	    }
+	    if (done) break;
+	}
+	s.close();
+    }
+
+    /** The main program
+     *  @param args the scenario file and the number of regions
+     */
+    public static void main( String[] args ) {
+	try {
+	    if ((args.length == 7) && args[0].equals( "-region" )) {
+		runRegion( args );
+	    } else if (args.length == 2) {
+		int regions = Integer.parseInt( args[1] );
+		if (regions < 1) Error.fatal( "regions "+regions+": too few" );
+		coordinate( new File( args[0] ), regions );
+	    } else {
+		Error.fatal( "Usage: java Shard file regions" );
+	    }
+	} catch ( NumberFormatException e ) {
+	    Error.warn( "Not a number: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( IOException e ) {
+	    Error.warn( "Regions failed: " + e.getMessage() );
+	    System.exit( 1 );
+	} catch ( Error.Fatal e ) {
+	    System.exit( 1 );
+	}
+	System.exit( 0 );
+    }
+}
+
+/** A message from one region to another, delivered as an event
+ *  @author Thomas McDowell
+ *  @version 1/16/2021
+ *  @see Shard
+ */
+class Message extends Simulator.Event {
+    private static final long serialVersionUID = 1L;
+    // kinds of messages
+    static final byte arrive = 0; // someone arrives to visit a workplace
+    static final byte home = 1;   // a visitor arrives back home
+    static final byte changed = 2; // the infection state of a visitor changed
+
+    int to;                   // the region the message goes to
+    int from;                 // the region it comes from
+    final byte kind;
+    final int agent;          // who the message is about, by graph id
+    final int place;          // where they arrive, by graph id
+    final Person.States state;
+    final boolean infected;   // whether they were infected while away
+
+    /** @param t the time of the message, at least a window from now
+     *  @param kind the kind of message
+     *  @param agent the graph id of who the message is about
+     *  @param place the graph id of where they arrive, if that matters
+     *  @param state their infection state, if that matters
+     *  @param infected whether they were infected while away
+     */
+    Message( double t, byte kind, int agent, int place,
+	Person.States state, boolean infected
+    ) {
+	super( t );
+	this.kind = kind;
+	this.agent = agent;
+	this.place = place;
+	this.state = state;
+	this.infected = infected;
+    }
+
+    public void trigger() {
+	Shard.deliver( this );
+    }
+
+    /** Write this message
+     *  @param out where to write it
+     */
+    void write( DataOutputStream out ) throws IOException {
+	out.writeDouble( time );
+	out.writeInt( from );
+	out.writeByte( kind );
+	out.writeInt( agent );
+	out.writeInt( place );
+	out.writeByte( state.ordinal() );
+	out.writeBoolean( infected );
+    }
+
+    /** Read a message written by write()
+     *  @param in where to read it from
+     *  @return the message
+     */
+    static Message read( DataInputStream in ) throws IOException {
+	double t = in.readDouble();
+	int from = in.readInt();
+	byte kind = in.readByte();
+	int agent = in.readInt();
+	int place = in.readInt();
+	Person.States state = Person.States.values()[in.readByte()];
+	boolean infected = in.readBoolean();
+	Message m = new Message( t, kind, agent, place, state, infected );
+	m.from = from;
+	return m;
+    }
+}
+
+/** A stand-in for a workplace in another region
+ *  @author Thomas McDowell
+ *  @version 1/16/2021
+ *  @see Shard
+ */
+class RemoteWorkPlace extends WorkPlace {
+    private static final long serialVersionUID = 1L;
+    final int graphId; // the workplace, by graph id
+    final int region;  // the region it is in
+
+    /** @param graphId the workplace, by graph id
+     *  @param region the region it is in
+     */
+    RemoteWorkPlace( int graphId, int region ) {
+	super( 0.0, false ); // it never opens here, nobody ever comes here
+	this.graphId = graphId;
+	this.region = region;
+    }
+}
+
+/** A stand-in for someone from another region, here to work
+ *  Their home region owns their infection; here they can only catch it.
+ *  A stand-in has no record in an AgentStore, so it keeps its place and
+ *  state in its own fields.
+ *  @author Thomas McDowell
+ *  @version 1/16/2021
+ *  @see Shard
+ */
+class Visitor extends Person {
+    private static final long serialVersionUID = 1L;
+    final int agent;           // who they are, by graph id
+    final int homeRegion;      // where they live
+    boolean infected = false;  // caught it here, this visit
+
+    /** @param agent who they are, by graph id
+     *  @param homeRegion where they live
+     */
+    Visitor( int agent, int homeRegion ) {
+	super(); // a stand-in
+	this.agent = agent;
+	this.homeRegion = homeRegion;
+    }
+
+    /** Arrive here to work
+     *  @param p the workplace
+     *  @param s their infection state, as of now
+     *  @param t the time of arrival
+     */
+    void visit( Place p, States s, double t ) {
+	if (place != null) place.depart( this, t ); // never sent home?
+	place = null;
+	infectionState = s;
+	infected = false;
+	arriveAt( t, p );
+    }
+
+    /** Their home region says their infection state changed
+     *  @param s the new state
+     *  @param t the time of the change
+     */
+    void see( States s, double t ) {
+	if (place == null) {
+	    infectionState = s;
+	} else if (s == States.dead) { // leave quietly, home knows already
+	    place.depart( this, t );
+	    place = null;
+	    infectionState = s;
+	} else {
+	    boolean was = isInfectious();
+	    infectionState = s;
+	    if (!was && isInfectious()) place.oneMoreInfectious( t );
+	    if (was && !isInfectious()) place.oneLessInfectious( t );
+	    if (s == States.bedridden) goHome( t );
+	}
+    }
+
+    /** Catch the infection here
+     *  @param t the time of infection
+     *  @return true if this infected them
+     *  The home region infects them when they get back.
+     */
+    public boolean infect( double t ) {
+	if (infectionState != States.uninfected) return false;
+	infectionState = States.latent;
+	infected = true;
+	return true;
+    }
+
+    /** Go back to the home region
+     *  @param t the time of departure
+     */
+    public void goHome( double t ) {
+	if (trip != null) return; // already going
+
+	// leave in an event, since this may be called while the place is
+	// going through its occupants
+	class Leave extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
+	    Leave() { super( t ); }
+	    public void trigger() {
+		trip = null;
+		if (place != null) place.depart( Visitor.this, time );
+		place = null;
+		Shard.send( homeRegion, new Message(
+		    time + Math.max( travelT.next(), Shard.window ),
+		    Message.home, agent, -1, infectionState, infected
+		) );
+	    }
+	}
+	trip = Simulator.schedule( new Leave() );
+    }
+}
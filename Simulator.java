@@ -1,4 +1,9 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Framework for discrete event simulation.
@@ -19,11 +24,16 @@ public abstract class Simulator {
 
     /** Users create and schedule subclasses of events
      */  
-    public static abstract class Event {
+    public static abstract class Event implements Serializable {
+	private static final long serialVersionUID = 1L;
 
 	/** The time of the event, set by the constructor */
 	public final double time; // the time of this event
 
+	private long sequence;             // order of scheduling, breaks ties
+	private boolean pending = false;   // true while in the event set
+	private boolean cancelled = false; // true once cancelled while pending
+
 	/** Construct a new event and set its time
 	 *  @param t, the event's time
 	 */
@@ -36,30 +46,417 @@ public abstract class Simulator {
 	 *  Each subclass of event must provide a trigger method.
 	 */
 	public abstract void trigger(); // what to do at that time
+
+	/** Does this event only mark the passage of time?
+	 *  @return true for events such as reports and the end of time,
+	 *  which must still happen after quiesce(), default false
+	 */
+	public boolean timekeeping() {
+	    return false;
+	}
+
+	/** What does this event touch?
+	 *  @return the one thing, typically a place, whose state this event
+	 *  and whatever it does can change, or null if that isn't so;
+	 *  default null
+	 *  Events at the same time with different non-null groups must not
+	 *  touch each other's state, so they can be run in parallel.
+	 */
+	public Object group() {
+	    return null;
+	}
+
+	/** Cancel this event so that it will never be triggered
+	 *  Cancelling an event that already happened has no effect.
+	 *  Cancelled events are not removed from the event set right away;
+	 *  they are discarded when they reach the head of the event set or
+	 *  swept out in bulk once they make up too much of the event set.
+	 */
+	public void cancel() {
+	    if (pending && !cancelled) {
+		cancelled = true;
+		if (batching) { // from a parallel batch, counted when it ends
+		    working.get().cancelled++;
+		    return;
+		}
+		staleCount = staleCount + 1;
+		cancelCount = cancelCount + 1;
+		if ((eventSet.size() >= purgeMinimum)
+		&&  (staleCount > purgeFraction * eventSet.size())) purge();
+	    }
+	}
+
+	/** Test to see if this event was cancelled
+	 *  @return true if cancel() was called before the event happened
+	 */
+	public boolean isCancelled() {
+	    return cancelled;
+	}
     }
 
+    // events at the same time happen in the order they were scheduled,
+    // so a simulation restored from a snapshot repeats exactly
     private static PriorityQueue<Event> eventSet
 	= new PriorityQueue<Event> (
-	    (Event e1, Event e2)-> Double.compare( e1.time, e2.time )
+	    (Event e1, Event e2)-> (e1.time != e2.time)
+		? Double.compare( e1.time, e2.time )
+		: Long.compare( e1.sequence, e2.sequence )
 	);
+    private static long scheduled = 0; // count of calls to schedule()
+
+    private static boolean running = false; // cleared by stop()
+    private static double quietTime = -1;   // set by quiesce(), if called
+
+    // progress of the simulation, read without locking by MetricsServer
+    private static double now = 0.0;      // time of the latest event
+    private static long triggerCount = 0; // number of events triggered
+
+    // lazy deletion of cancelled events
+    private static final double purgeFraction = 0.5; // purge when this stale
+    private static final int purgeMinimum = 1024; // don't purge tiny sets
+    private static int staleCount = 0;   // cancelled events still in eventSet
+
+    // statistics on cancelled events
+    private static long cancelCount = 0; // events cancelled while pending
+    private static long skipCount = 0;   // stale events dropped from the head
+    private static long purgeCount = 0;  // stale events swept out by purges
+    private static int purges = 0;       // number of purges
+    private static int highWater = 0;    // most events ever in the event set
+    private static long dropCount = 0;   // events dropped by quiesce()
+
+    // parallel batches of events at the same time, see parallel()
+    private static final int batchMinimum = 64; // smaller ones run in order
+    private static ForkJoinPool pool = null;     // null if not parallel
+    private static int threads = 0;              // 0 if not parallel
+    private static boolean batching = false;     // true in a parallel batch
+    private static long batches = 0;             // parallel batches run
+
+    /** The events of a batch that share a group, in order
+     */
+    private static final class Group {
+	final ArrayList<Event> events = new ArrayList<Event>();
+	final ArrayList<Event> scheduled = new ArrayList<Event>(); // new ones
+	long seed;     // of the random numbers this group draws
+	int cancelled; // events cancelled while pending
+	int skipped;   // events of this group that were cancelled
+	int triggered; // events of this group that were triggered
+
+	/** Trigger the events of this group, on this thread
+	 */
+	void run() {
+	    working.set( this );
+	    MyRandom.seedLocal( seed );
+	    for (Event e: events) {
+		e.pending = false;
+		if (e.cancelled) {
+		    skipped = skipped + 1;
+		} else {
+		    triggered = triggered + 1;
+		    e.trigger();
+		}
+	    }
+	    working.remove();
+	}
+    }
+
+    // the group each thread is working on during a parallel batch
+    private static final ThreadLocal<Group> working = new ThreadLocal<>();
 
     /** Call schedule to make an event happen at its time.
      *  Users create events with trigger method and a time, then schedule it
+     *  @param e the event to schedule
+     *  @return e, as a handle that may be used to cancel the event
+     */
+    static Event schedule( Event e ) {
+	if (batching) { // sequence numbers are given when the batch ends
+	    e.pending = true;
+	    working.get().scheduled.add( e );
+	    return e;
+	}
+	if ((quietTime >= 0) && !e.timekeeping()) { // it can't matter now
+	    dropCount = dropCount + 1;
+	    return e;
+	}
+	e.sequence = scheduled;
+	scheduled = scheduled + 1;
+	e.pending = true;
+	eventSet.add( e );
+	if (eventSet.size() > highWater) highWater = eventSet.size();
+	return e;
+    }
+
+    /** Sweep all cancelled events out of the event set
+     *  this costs time proportional to the size of the event set
+     */
+    static void purge() {
+	int before = eventSet.size();
+	eventSet.removeIf( (Event e)-> e.cancelled );
+	int purged = before - eventSet.size(); // not those taken for a batch
+	purgeCount = purgeCount + purged;
+	purges = purges + 1;
+	staleCount = staleCount - purged;
+    }
+
+    /** Skip all but timekeeping from now on, since nothing else can matter
+     *  Called when the model reaches a state it can never leave, so only
+     *  the passage of time remains to be simulated.  All other events are
+     *  dropped, now and when scheduled later, so the simulation goes on
+     *  at the cost of the timekeeping events alone.
+     */
+    static void quiesce() {
+	if (quietTime >= 0) return;
+	quietTime = now;
+	eventSet.removeIf( (Event e)-> {
+	    if (e.timekeeping() && !e.cancelled) return false;
+	    if (e.cancelled) {
+		staleCount = staleCount - 1;
+		purgeCount = purgeCount + 1;
+	    } else {
+		dropCount = dropCount + 1;
+	    }
+	    e.pending = false;
+	    return true;
+	} );
+    }
+
+    /** @return the number of cancelled events still in the event set
+     */
+    static int stale() {
+	return staleCount;
+    }
+
+    /** @return the time of the event most recently triggered
+     */
+    static double now() {
+	return now;
+    }
+
+    /** @return the number of events triggered so far
+     */
+    static long triggered() {
+	return triggerCount;
+    }
+
+    /** @return the number of events in the event set, including stale ones
+     */
+    static int pending() {
+	return eventSet.size();
+    }
+
+    /** @return all pending events that have not been cancelled
+     *  The events are not in any particular order.
+     */
+    static ArrayList<Event> events() {
+	ArrayList<Event> events = new ArrayList<Event>( eventSet.size() );
+	for (Event e: eventSet) if (!e.cancelled) events.add( e );
+	return events;
+    }
+
+    /** @return the number of events ever scheduled, for Snapshot
+     */
+    static long scheduled() {
+	return scheduled;
+    }
+
+    /** Restart the simulation as it was at a given time
+     *  @param t the time the simulation was paused at
+     *  @param s the number of events scheduled by then
+     *  Called only by Snapshot, after reset() and before reinstating
+     *  the restored events.
+     */
+    static void restart( double t, long s ) {
+	now = t;
+	scheduled = s;
+    }
+
+    /** Put a restored event back in the event set, in its original order
+     *  @param e the event, as it was in the event set when paused
+     *  Called only by Snapshot.
      */
-    static void schedule( Event e ) {
+    static void reinstate( Event e ) {
+	e.pending = true;
 	eventSet.add( e );
     }
 
+    /** @return the most events there have ever been in the event set
+     */
+    static int highWater() {
+	return highWater;
+    }
+
+    /** Report on the events that were cancelled and never triggered
+     *  @return a one-line summary of cancellation statistics
+     */
+    static String statistics() {
+	return "events cancelled = " + cancelCount
+	    + ", skipped = " + skipCount
+	    + ", purged = " + purgeCount + " in " + purges + " purges"
+	    + ", still pending = " + staleCount
+	    + ((threads == 0) ? "" : ", parallel batches = " + batches)
+	    + ((quietTime < 0) ? "" : ", quiet at " + quietTime
+		+ " dropping " + dropCount
+	    );
+    }
+
+    /** Stop the simulation
+     *  Called from within an event, this makes run() return once that
+     *  event is finished; events still in the event set are left there.
+     */
+    static void stop() {
+	running = false;
+    }
+
+    /** @return true if stop() was called since the simulation last ran
+     */
+    static boolean stopped() {
+	return !running;
+    }
+
+    /** Forget all events and statistics, so a new simulation can start
+     */
+    static void reset() {
+	eventSet.clear();
+	scheduled = 0;
+	running = false;
+	now = 0.0;
+	triggerCount = 0;
+	staleCount = 0;
+	cancelCount = 0;
+	skipCount = 0;
+	purgeCount = 0;
+	purges = 0;
+	highWater = 0;
+	quietTime = -1;
+	dropCount = 0;
+	batches = 0; // but stay parallel, if so, as Snapshot needs
+    }
+
+    /** Run independent events at the same time in parallel, or stop doing so
+     *  @param n the number of threads to use, 0 to run events in order
+     *  Once parallel, the events at each time that all have groups are
+     *  taken from the event set together, as a batch; in a big enough
+     *  batch, the events of each group are run in order on one thread,
+     *  with different groups on different threads.  Events they schedule
+     *  are put in the event set when the batch ends, in the order of the
+     *  groups, and each group draws random numbers from a stream seeded
+     *  from the common stream in that order, so the results depend only
+     *  on the seed, never on the number of threads or how they interleave.
+     *  They differ from those of running events in order, since the
+     *  random numbers are drawn differently.
+     */
+    static void parallel( int n ) {
+	if (pool != null) pool.shutdown();
+	pool = ((n > 1) ? new ForkJoinPool( n ) : null);
+	threads = n;
+    }
+
     /** run the simulation.
      *  Call <TT>run()</TT> after scheduling some initial events
      *  to run the simulation.
      *  This becomes the main loop of the program; typically, some scheduled
-     *  event will terminate the program by calling <TT>System.exit()</TT>.
+     *  event will end the simulation by calling <TT>stop()</TT>.
      */
     static void run() {
-	while (!eventSet.isEmpty()) {
-	    eventSet.remove().trigger();
+	runUntil( Double.POSITIVE_INFINITY );
+    }
+
+    /** run the simulation up to, but not including, a given time
+     *  @param t the time at which to pause the simulation
+     *  Events at or after time t are left for a later call to run().
+     */
+    static void runUntil( double t ) {
+	running = true;
+	while (running && !eventSet.isEmpty() && (eventSet.peek().time < t)) {
+	    Event e = eventSet.remove();
+	    Object group = (threads > 0) ? e.group() : null;
+	    if (group != null) {
+		runBatch( e, group );
+	    } else {
+		fire( e );
+	    }
+	}
+    }
+
+    /** Trigger one event taken from the event set, unless cancelled
+     *  @param e the event
+     */
+    private static void fire( Event e ) {
+	e.pending = false;
+	if (e.cancelled) { // lazily delete cancelled events
+	    staleCount = staleCount - 1;
+	    skipCount = skipCount + 1;
+	} else {
+	    now = e.time;
+	    triggerCount = triggerCount + 1;
+	    e.trigger();
+	}
+    }
+
+    /** Run a batch of events at the same time that all have groups
+     *  @param first the first of them, already taken from the event set
+     *  @param group the group of the first
+     *  The batch is the first event and those after it in the event set
+     *  at the same time, up to the first without a group.  Events of a
+     *  batch stay pending until they run, so they can still be cancelled.
+     */
+    private static void runBatch( Event first, Object group ) {
+	// group them, with groups in the order of their first events
+	ArrayList<Event> batch = new ArrayList<Event>();
+	LinkedHashMap<Object, Group> byGroup = new LinkedHashMap<>();
+	for (Event e = first; e != null; ) {
+	    batch.add( e );
+	    byGroup.computeIfAbsent( group, k-> new Group() ).events.add( e );
+	    e = null;
+	    if (!eventSet.isEmpty() && (eventSet.peek().time == first.time)) {
+		group = eventSet.peek().group();
+		if (group != null) e = eventSet.remove();
+	    }
+	}
+
+	if (batch.size() < batchMinimum) { // not worth it, run them in order
+	    for (Event e: batch) {
+		if (running) {
+		    fire( e );
+		} else { // stopped, leave the rest for later
+		    eventSet.add( e );
+		}
+	    }
+	    return;
+	}
+
+	ArrayList<Group> groups = new ArrayList<Group>( byGroup.values() );
+	for (Group g: groups) g.seed = MyRandom.stream().nextLong();
+
+	now = first.time;
+	batching = true;
+	MyRandom.split( true );
+	try {
+	    if (pool == null) { // one thread, this one
+		for (Group g: groups) g.run();
+	    } else {
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (Group g: groups) tasks.add( pool.submit( g::run ) );
+		for (ForkJoinTask<?> task: tasks) task.join();
+	    }
+	} finally {
+	    batching = false;
+	    MyRandom.split( false );
+	}
+	batches = batches + 1;
+
+	// now do, in order, what the groups couldn't do at once
+	for (Group g: groups) {
+	    triggerCount = triggerCount + g.triggered;
+	    skipCount = skipCount + g.skipped;
+	    cancelCount = cancelCount + g.cancelled;
+	    staleCount = staleCount + g.cancelled - g.skipped;
+	    for (Event e: g.scheduled) {
+		e.pending = false; // as if never scheduled, for schedule()
+		schedule( e );
+	    }
 	}
+	if ((eventSet.size() >= purgeMinimum)
+	&&  (staleCount > purgeFraction * eventSet.size())) purge();
     }
 }
 
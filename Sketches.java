@@ -0,0 +1,234 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Daily statistics of contact and mixing, estimated with sketches
+ * Counting them exactly would need memory in proportion to the people
+ * and places involved; these sketches take the same fixed memory every
+ * day, whatever the size of the community:
+ * <ul>
+ * <li>contacts -- a HyperLogLog sketch of the distinct pairs of people
+ *     who met, and another of the distinct people in those pairs, so
+ *     their ratio gives the distinct contacts of each person who had any;
+ *     people meet when one arrives where the other is
+ * <li>workplaces -- a HyperLogLog sketch of the distinct workplaces that
+ *     infected people, latent, infectious or bedridden, arrived at
+ * <li>places infecting most -- a count-min sketch of infections by place,
+ *     with the places whose estimates are highest kept as candidates
+ * </ul>
+ * The estimates are printed with each daily report and the sketches
+ * start over for the next day.
+ * @author Thomas McDowell
+ * @version 1/25/2021
+ * Status: New code
+ * @see Place
+ * @see ReportEvent
+ */
+public class Sketches {
+    private Sketches(){} // prevent anyone from instantiating this class
+
+    /** true if sketches are kept; test before calling the update methods
+     */
+    static boolean on = false;
+
+    private static final int precision = 12; // 4096 HyperLogLog registers
+    private static final int registers = 1 << precision;
+    private static final int depth = 4;      // rows of the count-min sketch
+    private static final int width = 2048;   // columns, a power of two
+
+    /** A HyperLogLog sketch of distinct numbers
+     *  See Philippe Flajolet et al, HyperLogLog:  the analysis of a
+     *  near-optimal cardinality estimation algorithm, 2007.  The standard
+     *  error of the estimate is about 1.04 / sqrt( registers ), under 2%.
+     */
+    private static final class Distinct implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final byte[] rank = new byte[registers];
+
+	/** Note one number, which may have been noted before
+	 *  @param n the number
+	 */
+	void add( long n ) {
+	    long h = mix( n );
+	    int r = (int)(h >>> (64 - precision));
+	    // the rank is the position of the first one bit in the rest,
+	    // with a guard bit after the rest in case it is all zero
+	    long w = (h << precision) | (1L << (precision - 1));
+	    byte k = (byte)(Long.numberOfLeadingZeros( w ) + 1);
+	    if (rank[r] < k) rank[r] = k;
+	}
+
+	/** @return the estimated number of distinct numbers noted
+	 */
+	long estimate() {
+	    double sum = 0.0;
+	    int zeros = 0;
+	    for (byte k: rank) {
+		sum = sum + Math.scalb( 1.0, -k );
+		if (k == 0) zeros = zeros + 1;
+	    }
+	    double m = registers;
+	    double e = (0.7213 / (1 + 1.079 / m)) * m * m / sum;
+	    if ((e <= 2.5 * m) && (zeros > 0)) { // few, count empty registers
+		e = m * Math.log( m / zeros );
+	    }
+	    return Math.round( e );
+	}
+    }
+
+    /** The sketches of one day
+     *  Serializable, so a snapshot can hold the day so far.
+     */
+    static final class Day implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final Distinct pairs = new Distinct();
+	private final Distinct people = new Distinct();
+	private final Distinct workplaces = new Distinct();
+
+	// count-min sketch of infections by place id
+	private final int[][] counts = new int[depth][width];
+
+	// the places with the highest estimates so far, unordered
+	private final int[] top;       // place ids
+	private final int[] topCount;  // their estimates
+	private final String[] topKind;
+	private int topSize = 0;
+
+	/** @param k the number of places to keep as candidates
+	 */
+	Day( int k ) {
+	    top = new int[k];
+	    topCount = new int[k];
+	    topKind = new String[k];
+	}
+    }
+
+    // the sketches of the day so far
+    private static Day today = null;
+
+    /** @return a well mixed hash of a number
+     *  @param n the number
+     *  This is the finalizer of MurmurHash3.
+     */
+    private static long mix( long n ) {
+	n = (n ^ (n >>> 33)) * 0xff51afd7ed558ccdL;
+	n = (n ^ (n >>> 33)) * 0xc4ceb9fe1a85ec53L;
+	return n ^ (n >>> 33);
+    }
+
+    /** Start keeping sketches
+     *  @param k the number of places infecting most to report
+     */
+    static void start( int k ) {
+	today = new Day( k );
+	on = true;
+    }
+
+    /** Stop keeping sketches, so a new simulation can start
+     */
+    static void reset() {
+	today = null;
+	on = false;
+    }
+
+    /** @return the sketches of the day so far, for Snapshot
+     */
+    static Day today() {
+	return today;
+    }
+
+    /** Go back to the sketches of a day as they were before
+     *  @param d a value returned by today()
+     */
+    static void setToday( Day d ) {
+	today = d;
+	on = (d != null);
+    }
+
+    /** Note someone arriving at a place, before they join the occupants
+     *  @param where the place
+     *  @param p the person
+     */
+    static void arrive( Place where, Person p ) {
+	Day d = today;
+	for (Person q: where.occupants) {
+	    long a = Math.min( p.serial, q.serial );
+	    long b = Math.max( p.serial, q.serial );
+	    d.pairs.add( (a << 32) | b );
+	    d.people.add( q.serial );
+	}
+	if (!where.occupants.isEmpty()) d.people.add( p.serial );
+
+	if ((where instanceof WorkPlace)
+	&&  ((p.state() == Person.States.latent) || p.isInfectious())) {
+	    d.workplaces.add( where.id );
+	}
+    }
+
+    /** Note someone infected in a place
+     *  @param where the place
+     */
+    static void infection( Place where ) {
+	Day d = today;
+	int estimate = Integer.MAX_VALUE;
+	for (int row = 0; row < depth; row++) {
+	    int col = (int)mix( where.id + ((long)row << 32) ) & (width - 1);
+	    d.counts[row][col]++;
+	    estimate = Math.min( estimate, d.counts[row][col] );
+	}
+
+	// keep it among the candidates if it is, or now beats the least
+	int least = 0;
+	for (int i = 0; i < d.topSize; i++) {
+	    if (d.top[i] == where.id) {
+		d.topCount[i] = estimate;
+		return;
+	    }
+	    if (d.topCount[i] < d.topCount[least]) least = i;
+	}
+	if (d.topSize < d.top.length) {
+	    least = d.topSize;
+	    d.topSize = d.topSize + 1;
+	} else if (d.topCount[least] >= estimate) {
+	    return;
+	}
+	d.top[least] = where.id;
+	d.topCount[least] = estimate;
+	d.topKind[least] = Results.kind( where );
+    }
+
+    /** Print the estimates for the day with the daily report, and start
+     *  over for the next day
+     *  @param t the time of the report
+     */
+    static void report( double t ) {
+	Day d = today;
+	long pairs = d.pairs.estimate();
+	long people = d.people.estimate();
+	double each = (people == 0) ? 0.0 : (2.0 * pairs) / people;
+	StringBuilder s = new StringBuilder( "sketch at " + t
+	    + ": contacts = " + pairs + " among " + people
+	    + " (" + (Math.round( each * 10 ) / 10.0) + " each)"
+	    + ", infected at workplaces = " + d.workplaces.estimate()
+	    + ", infecting most ="
+	);
+
+	// the candidates, most infections first, ties by place number
+	Integer[] order = new Integer[d.topSize];
+	for (int i = 0; i < order.length; i++) order[i] = i;
+	Arrays.sort( order, (i, j)-> (d.topCount[i] != d.topCount[j])
+	    ? Integer.compare( d.topCount[j], d.topCount[i] )
+	    : Integer.compare( d.top[i], d.top[j] )
+	);
+	for (int i: order) {
+	    s.append( " " + d.topKind[i] + " " + d.top[i]
+		+ " " + d.topCount[i]
+	    );
+	}
+	if (order.length == 0) s.append( " none" );
+
+	Person.reports.println( s );
+	ResultCache.line( s.toString() );
+	today = new Day( d.top.length );
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * The complete state of a paused simulation, so it can be forked
+ * A snapshot holds the event set, every person and place with their
+ * states and occupancy, the counts of people in each state and the state
+ * of the random number stream.  It is taken once, as a compact immutable
+ * array of bytes that all branches share, and each branch restored from
+ * it gets its own private copy of the model to change as it pleases.
+ * <p>
+ * People and places are serialized shallowly, with their references to
+ * each other and to events saved here by id, so that taking a snapshot
+ * never recurses deeply through the community.
+ * @author Thomas McDowell
+ * @version 12/29/2020
+ * Status: New code
+ * @see Simulator
+ * @see Person
+ * @see Place
+ */
+public final class Snapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final double time;   // the time of the snapshot
+    private final long scheduled; // events scheduled up to that time
+    private final long random;   // state of MyRandom.stream()
+    private final double[] travelBatch; // state of Person.travelT
+    private final int travelUsed;
+    private final int[] counts;  // the static counts of infection progress
+    private final boolean[] fired; // which triggers have fired
+    private final Sketches.Day sketches; // the day so far, or null
+    private final Colocation.Log stays;  // the index of stays, or null
+
+    // people, in population order, and places, in order of ids
+    private final Person[] people;
+    private final Place[] places;
+
+    // where each person is, by person id; -1 means in transit
+    private final int[] home;
+    private final int[] place;
+    private final int[] job;     // -1 means not an employee, or no job
+    private final Simulator.Event[] trip;
+    private final Simulator.Event[] commute;
+
+    // who is in each place, in order of arrival, by place id
+    private final int[][] occupants;
+
+    // place types, and the members of their places, by place id
+    private final PlaceType[] types;
+    private final int[][] members; // null for homes and workplaces
+
+    // all pending events
+    private final Simulator.Event[] events;
+
+    /** Capture the current state of the simulation
+     *  @param t the time at which the simulation is paused
+     *  Called only between events, never from inside one.
+     */
+    private Snapshot( double t ) {
+	time = t;
+	scheduled = Simulator.scheduled();
+	random = MyRandom.stream().state();
+	Distribution.Batched travelT = (Distribution.Batched)Person.travelT;
+	travelBatch = travelT.batch.clone();
+	travelUsed = travelT.used;
+	fired = Trigger.fired();
+	sketches = Sketches.today();
+	stays = Colocation.log();
+	counts = Counters.totals();
+
+	ArrayList<Place> placeList = new ArrayList<Place>();
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    placeList.add( i.next() );
+	}
+	places = placeList.toArray( new Place[0] );
+	occupants = new int[places.length][];
+	for (Place p: places) {
+	    occupants[p.id] = new int[p.occupants.size()];
+	    int i = 0;
+	    for (Person o: p.occupants) {
+		occupants[p.id][i] = o.id;
+		i = i + 1;
+	    }
+	}
+	types = PlaceType.all();
+	members = new int[places.length][];
+	for (Place p: places) {
+	    if (!(p instanceof GenericPlace)) continue;
+	    ArrayList<Person> m = new ArrayList<Person>();
+	    for (Person o: p.members()) m.add( o );
+	    members[p.id] = new int[m.size()];
+	    for (int i = 0; i < m.size(); i++) members[p.id][i] = m.get( i ).id;
+	}
+
+	ArrayList<Person> personList = new ArrayList<Person>();
+	for (Iterator<Person> i = Person.iterator(); i.hasNext(); ) {
+	    personList.add( i.next() );
+	}
+	people = personList.toArray( new Person[0] );
+	home = new int[people.length];
+	place = new int[people.length];
+	job = new int[people.length];
+	trip = new Simulator.Event[people.length];
+	commute = new Simulator.Event[people.length];
+	for (Person p: people) {
+	    home[p.id] = p.home.id;
+	    place[p.id] = (p.place == null) ? -1 : p.place.id;
+	    job[p.id] = -1;
+	    trip[p.id] = p.trip;
+	    if (p instanceof Employee) {
+		Employee e = (Employee)p;
+		if (e.job() != null) job[p.id] = e.job().id;
+		commute[p.id] = e.commute();
+	    }
+	}
+
+	events = Simulator.events().toArray( new Simulator.Event[0] );
+    }
+
+    /** Take a snapshot of the simulation
+     *  @param t the time at which the simulation is paused
+     *  @return the snapshot, as an array of bytes
+     *  Called only between events, never from inside one.
+     */
+    public static byte[] take( double t ) {
+	AgentStore.settle(); // people and places are serialized from fields
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    ObjectOutputStream out = new ObjectOutputStream( bytes );
+	    out.writeObject( new Snapshot( t ) );
+	    out.close();
+	    return bytes.toByteArray();
+	} catch ( IOException e ) {
+	    // only possible if something in the model can't be serialized
+	    throw new IllegalStateException( "can't take snapshot", e );
+	}
+    }
+
+    /** Replace the simulation with a private copy of a snapshot
+     *  @param bytes the snapshot, as returned by take()
+     *  The simulation can then continue with run() as if it had never
+     *  been interrupted, or with changes made by the caller.  An open
+     *  AgentStore is made to describe the copy.
+     */
+    public static void restore( byte[] bytes ) {
+	Snapshot s;
+	try {
+	    ObjectInputStream in = new ObjectInputStream(
+		new ByteArrayInputStream( bytes )
+	    );
+	    s = (Snapshot)in.readObject();
+	} catch ( IOException | ClassNotFoundException e ) {
+	    throw new IllegalStateException( "can't restore snapshot", e );
+	}
+	AgentStore.suspend(); // the copy's own fields hold its state
+	s.restore();
+	AgentStore.sync();
+    }
+
+    /** Make this, freshly deserialized, the current simulation
+     */
+    private void restore() {
+	Simulator.reset();
+	Person.reset();
+	Place.reset();
+	WorkPlace.reset();
+	PlaceType.reset();
+
+	MyRandom.stream().setState( random );
+	Distribution.Batched travelT = (Distribution.Batched)Person.travelT;
+	System.arraycopy(
+	    travelBatch, 0, travelT.batch, 0, travelBatch.length
+	);
+	travelT.used = travelUsed;
+	Trigger.setFired( fired );
+	Sketches.setToday( sketches );
+	Counters.set( counts );
+
+	for (Place p: places) Place.adopt( p );
+	for (PlaceType t: types) PlaceType.adopt( t );
+
+	// residents were added in order of id, employees in population order
+	Person[] byId = new Person[people.length];
+	for (Person p: people) byId[p.id] = p;
+	for (Person p: byId) {
+	    p.home = (HomePlace)places[home[p.id]];
+	    p.home.addResident( p ); // this makes them occupants too, so
+	    p.home.occupants.clear(); // forget that, occupants come later
+	}
+	for (Person p: people) {
+	    Person.adopt( p );
+	    p.place = (place[p.id] < 0) ? null : places[place[p.id]];
+	    p.trip = trip[p.id];
+	    if ((p instanceof Employee) && (job[p.id] >= 0)) {
+		Employee e = (Employee)p;
+		e.setWorkplace( (WorkPlace)places[job[p.id]] );
+		e.setCommute( commute[p.id] );
+	    }
+	}
+	for (Place p: places) {
+	    for (int o: occupants[p.id]) p.occupants.add( byId[o] );
+	    if (members[p.id] == null) continue;
+	    for (int m: members[p.id]) ((GenericPlace)p).addMember( byId[m] );
+	}
+
+	Colocation.setLog( stays ); // now that everyone is back
+
+	Simulator.restart( time, scheduled );
+	for (Simulator.Event e: events) Simulator.reinstate( e );
+    }
+}
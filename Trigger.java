@@ -0,0 +1,169 @@
+import java.util.Arrays;
+
+/**
+ * Triggers watch the counts of people in each state
+ * A trigger fires when the count it watches rises to its threshold, and
+ * is released when the count falls back below a lower threshold, so that
+ * policies such as closing workplaces need not poll the whole community.
+ * Each change to a count costs one comparison per trigger on that count.
+ * <p>
+ * A trigger can instead watch the count of infectious people in each
+ * place, firing for a place whenever its count rises to the threshold
+ * and releasing it whenever its count falls below the lower one, so that
+ * a policy can act on one place at a time.  Places keep these counts
+ * anyway, so each change costs one comparison per trigger of this form.
+ * @author Thomas McDowell
+ * @version 1/4/2021
+ * Status: New code
+ * @see Person
+ */
+public abstract class Trigger {
+    private final Person.States state; // whose count is watched, or null
+    private final int on;       // fire when the count rises to this
+    private final int off;      // release when the count falls below this
+    private boolean fired = false;
+
+    // all the triggers, by the ordinal of the state each watches
+    private static Trigger[][] watching =
+	new Trigger[Person.States.values().length][0];
+    private static Trigger[] all = new Trigger[0];
+    private static Trigger[] places = new Trigger[0]; // those of places
+
+    /** Construct and activate a trigger
+     *  @param state the state of the people to count
+     *  @param on fire when the count of people in that state reaches this
+     *  @param off release when the count falls below this, at most on
+     */
+    protected Trigger( Person.States state, int on, int off ) {
+	assert off <= on;
+	this.state = state;
+	this.on = on;
+	this.off = off;
+
+	Trigger[] w = watching[state.ordinal()];
+	watching[state.ordinal()] = append( w, this );
+	all = append( all, this );
+    }
+
+    /** Construct and activate a trigger on each place
+     *  @param on fire for a place when this many there are infectious
+     *  @param off release a place when fewer than this are, at most on
+     */
+    protected Trigger( int on, int off ) {
+	assert off <= on;
+	this.state = null;
+	this.on = on;
+	this.off = off;
+
+	places = append( places, this );
+	all = append( all, this );
+    }
+
+    private static Trigger[] append( Trigger[] a, Trigger t ) {
+	Trigger[] b = Arrays.copyOf( a, a.length + 1 );
+	b[a.length] = t;
+	return b;
+    }
+
+    /** What to do when the count rises to the threshold
+     *  @param t the time of the change
+     *  This is called from the middle of some event, so it should do its
+     *  work by scheduling events rather than moving people directly.
+     */
+    protected void fire( double t ) {}
+
+    /** What to do when the count falls back below the release threshold
+     *  @param t the time of the change
+     *  @see fire
+     */
+    protected void release( double t ) {}
+
+    /** What to do when the count in a place rises to the threshold
+     *  @param p the place
+     *  @param t the time of the change
+     *  @see fire
+     */
+    protected void fire( Place p, double t ) {}
+
+    /** What to do when the count in a place falls below the release
+     *  threshold
+     *  @param p the place
+     *  @param t the time of the change
+     *  @see fire
+     */
+    protected void release( Place p, double t ) {}
+
+    /** The count of people in some state has changed
+     *  @param s the state
+     *  @param t the time of the change
+     *  Called only from Person, for every change of infection state.
+     *  The count is only added up if some trigger is watching it.
+     */
+    static void counted( Person.States s, double t ) {
+	Trigger[] w = watching[s.ordinal()];
+	if (w.length == 0) return;
+	int count = Counters.current( s );
+	for (Trigger g: w) {
+	    if (!g.fired && (count >= g.on)) {
+		g.fired = true;
+		g.fire( t );
+	    } else if (g.fired && (count < g.off)) {
+		g.fired = false;
+		g.release( t );
+	    }
+	}
+    }
+
+    /** The count of infectious people in some place has changed
+     *  @param p the place
+     *  @param was the count before the change
+     *  @param now the count after it
+     *  @param t the time of the change
+     *  Called only from Place, for every change of its infectious count.
+     */
+    static void infectious( Place p, int was, int now, double t ) {
+	for (Trigger g: places) {
+	    if ((was < g.on) && (now >= g.on)) {
+		g.fire( p, t );
+	    } else if ((was >= g.off) && (now < g.off)) {
+		g.release( p, t );
+	    }
+	}
+    }
+
+    /** @return the kind of trigger and what it watches
+     */
+    public String toString() {
+	String watched = (state == null) ? "place" : state.toString();
+	return getClass().getName() + " " + watched + " " + on + " " + off;
+    }
+
+    /** @return all triggers, in order of construction
+     */
+    static Trigger[] all() {
+	return all.clone();
+    }
+
+    /** @return which triggers have fired and not been released, for Snapshot
+     */
+    static boolean[] fired() {
+	boolean[] f = new boolean[all.length];
+	for (int i = 0; i < all.length; i++) f[i] = all[i].fired;
+	return f;
+    }
+
+    /** Restore which triggers have fired
+     *  @param f a value returned by fired(), with the same triggers active
+     */
+    static void setFired( boolean[] f ) {
+	for (int i = 0; i < all.length; i++) all[i].fired = f[i];
+    }
+
+    /** Forget all triggers, so a new simulation can start
+     */
+    static void reset() {
+	watching = new Trigger[Person.States.values().length][0];
+	all = new Trigger[0];
+	places = new Trigger[0];
+    }
+}
@@ -1,5 +1,8 @@
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 
 /**
  * WorkPlaces are occupied by employees
@@ -11,25 +14,47 @@ import java.util.Iterator;
  * @see Employee
  */
 public class WorkPlace extends Place {
-    private final LinkedList <Employee> employees = new LinkedList <Employee>();
+    private static final long serialVersionUID = 1L;
+    private transient LinkedList <Employee> employees =
+	new LinkedList <Employee>();
+
+    // why this workplace is closed, if it is; see reclose()
+    private boolean large = false;       // by WorkplaceClosure
+    private boolean quarantined = false; // by WorkplaceQuarantine
 
     // transmissivity median and scatter for workplaces
     // BUG --  These should come from model description file, not be hard coded
     private static final double transMed = 0.02 * Simulator.hour;
     private static final double transScat = 0.25 * Simulator.hour;
 
-    // need a source of random numbers
-    private static final MyRandom rand = MyRandom.stream();
+    private static final Distribution trans =
+	new Distribution.LogNormal( transMed, transScat );
 
     /** The only constructor for WorkPlace
      *  WorkPlaces are constructed with no residents
      */
     public WorkPlace() {
+	this( trans.next() );
+    }
+
+    /** Constructor for WorkPlace with a known transmissivity
+     *  @param t the transmissivity of the new workplace
+     */
+    public WorkPlace( double t ) {
+	this( t, true );
+    }
+
+    /** Constructor for WorkPlace that may never open
+     *  @param t the transmissivity of the new workplace
+     *  @param opens false for a stand-in for a workplace elsewhere
+     *  @see Shard
+     */
+    WorkPlace( double t, boolean opens ) {
 	super(); // initialize the underlying place
-	super.transmissivity = rand.nextLogNormal( transMed, transScat );
+	super.transmissivity = t;
 
 	// make the workplace open at 8 AM
-	open( 8*Simulator.hour );
+	if (opens) open( 8*Simulator.hour );
     }
 
     /** Add an employee to a WorkPlace
@@ -41,6 +66,120 @@ public class WorkPlace extends Place {
 	// no need to check to see if the person already works there?
     }
 
+    /** Restore transient fields as a workplace is deserialized
+     *  @param in the stream the workplace is being read from
+     */
+    private void readObject( ObjectInputStream in )
+	throws IOException, ClassNotFoundException
+    {
+	in.defaultReadObject();
+	employees = new LinkedList <Employee>();
+    }
+
+    /** Remove an employee from a WorkPlace
+     *  Should only be called when compacting away the dead
+     *  @param r an Employee, the worker to forget
+     */
+    void removeEmployee( Employee r ) {
+	boolean wasPresent = employees.remove( r );
+	assert wasPresent: "r=" + r + " this=" + this;
+    }
+
+    /** Allow outsiders to see the employees
+     *  @return the people who work here
+     */
+    Iterable <Employee> members() {
+	return employees;
+    }
+
+    // all workplaces, largest first, built when first needed
+    private static WorkPlace[] bySize = null;
+
+    /** Forget the workplaces sorted by size
+     *  Called whenever the community is replaced, and whenever compaction
+     *  removes employees, since that can leave them out of order.
+     */
+    static void reset() {
+	bySize = null;
+    }
+
+    /** Close or reopen all workplaces with more than some number of employees
+     *  @param size close workplaces with more employees than this
+     *  @param closed true to close them, false to reopen them
+     *  @param t the time the policy takes effect
+     *  The change is made all at once, by one event, and only workplaces
+     *  that are large enough are looked at.
+     */
+    static void closeLarger( int size, boolean closed, double t ) {
+	class Policy extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
+	    Policy() { super( t ); }
+	    public void trigger() {
+		if (bySize == null) sortBySize();
+		for (WorkPlace w: bySize) {
+		    if (w.employees.size() <= size) break; // the rest are small
+		    w.large = closed;
+		    w.reclose( time );
+		}
+	    }
+	}
+	Simulator.schedule( new Policy() );
+    }
+
+    /** Close this workplace for a while, unless that is already done
+     *  @param days how long to close it
+     *  @param t the time it closes
+     */
+    void quarantine( double days, double t ) {
+	class Quarantine extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
+	    private final boolean closing; // false to reopen
+	    Quarantine( double t, boolean closing ) {
+		super( t );
+		this.closing = closing;
+	    }
+	    public void trigger() {
+		if (closing) {
+		    if (quarantined) return; // already closed for a while
+		    Simulator.schedule(
+			new Quarantine( time + days * Simulator.day, false )
+		    );
+		}
+		quarantined = closing;
+		reclose( time );
+	    }
+	}
+	Simulator.schedule( new Quarantine( t, true ) );
+    }
+
+    /** Close or reopen this workplace as the policies now want
+     *  @param t the time of the change
+     *  The workplace is closed while any policy wants it closed, so one
+     *  policy reopening it doesn't undo another's closing it.
+     */
+    private void reclose( double t ) {
+	boolean was = closed();
+	boolean now = large || quarantined;
+	if (now == was) return;
+	setClosed( now );
+	// anyone at work when it closes must go home
+	if (now) for (Person p: occupants) p.goHome( t );
+    }
+
+    /** Sort all workplaces by size, largest first
+     */
+    private static void sortBySize() {
+	ArrayList<WorkPlace> all = new ArrayList<WorkPlace> ();
+	for (Iterator<Place> i = Place.iterator(); i.hasNext(); ) {
+	    Place p = i.next();
+	    if (p instanceof WorkPlace) all.add( (WorkPlace)p );
+	}
+	all.sort(
+	    (WorkPlace a, WorkPlace b)-> b.employees.size() - a.employees.size()
+	);
+	bySize = all.toArray( new WorkPlace[0] );
+    }
+
     /** Primarily for debugging
      * @return textual name and employees of the workplace
      */
@@ -62,7 +201,9 @@ public class WorkPlace extends Place {
 	// BUG -- we should probably do something useful too
 	
 	class OpenWorkplace extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
 	    OpenWorkplace() { super( t ); }
+	    public Object group() { return WorkPlace.this; }
 	    public void trigger() {
 		//System.out.println( this.toString() + " opened at time " + t );
 	        close( this.time + 8*Simulator.hour );
@@ -83,7 +224,9 @@ public class WorkPlace extends Place {
 
 	// open this workplace 16 hours later, with no attention to weekends
 	class CloseWorkplace extends Simulator.Event {
+	    private static final long serialVersionUID = 1L;
 	    CloseWorkplace() { super( t ); }
+	    public Object group() { return WorkPlace.this; }
 	    public void trigger() {
 		//System.out.println( this.toString() + " closed at time " + t );
 	        open( this.time + 16*Simulator.hour );
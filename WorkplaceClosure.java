@@ -0,0 +1,33 @@
+/**
+ * Policy of closing large workplaces while many people are bedridden
+ * @author Thomas McDowell
+ * @version 1/4/2021
+ * Status: New code
+ * @see Trigger
+ * @see WorkPlace
+ */
+class WorkplaceClosure extends Trigger {
+    private final int size;
+
+    /** Construct and activate the policy
+     *  @param size close workplaces with more employees than this
+     *  @param on close them when this many people are bedridden
+     *  @param off reopen them when fewer than this many are bedridden
+     */
+    WorkplaceClosure( int size, int on, int off ) {
+	super( Person.States.bedridden, on, off );
+	this.size = size;
+    }
+
+    protected void fire( double t ) {
+	WorkPlace.closeLarger( size, true, t );
+    }
+
+    protected void release( double t ) {
+	WorkPlace.closeLarger( size, false, t );
+    }
+
+    public String toString() {
+	return super.toString() + " " + size;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Policy of closing each workplace for a while once enough of the people
+ * there are infectious at once
+ * @author Thomas McDowell
+ * @version 2/3/2021
+ * Status: New code
+ * @see Trigger
+ * @see WorkPlace
+ */
+class WorkplaceQuarantine extends Trigger {
+    private final double days;
+
+    /** Construct and activate the policy
+     *  @param on close a workplace when this many there are infectious
+     *  @param days how long to close it
+     */
+    WorkplaceQuarantine( int on, double days ) {
+	super( on, 0 ); // never released; it reopens on its own
+	this.days = days;
+    }
+
+    protected void fire( Place p, double t ) {
+	if (p instanceof WorkPlace) ((WorkPlace)p).quarantine( days, t );
+    }
+
+    public String toString() {
+	return super.toString() + " " + days;
+    }
+}